@@ -1,19 +1,18 @@
 package amazons;
 
-import java.util.Iterator;
-import static amazons.Piece.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** A Player that automatically generates moves.
  *  @author JaniceNg
  */
 class AI extends Player {
 
-    /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
-
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
     AI() {
@@ -25,9 +24,128 @@ class AI extends Player {
         super(piece, controller);
     }
 
+    /** A new AI playing PIECE under control of CONTROLLER, configured
+     *  like TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
+        this(piece, controller);
+        _tableBytes = template._tableBytes;
+        _timeLimit = template._timeLimit;
+        _depthLimit = template._depthLimit;
+        _threads = template._threads;
+        _evaluator = template._evaluator;
+        _splitPly = template._splitPly;
+        _ponder = template._ponder;
+        _book = template._book;
+    }
+
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Limit my transposition table, and those of AIs I create, to
+     *  BYTES bytes of memory.  Returns this AI. */
+    AI setTableSize(long bytes) {
+        _tableBytes = bytes;
+        _table = null;
+        _searches = null;
+        return this;
+    }
+
+    /** Limit my searches, and those of AIs I create, to MILLIS
+     *  milliseconds per move (the first, depth-1 search always runs to
+     *  completion).  Returns this AI. */
+    AI setTimeLimit(long millis) {
+        _timeLimit = millis;
+        return this;
+    }
+
+    /** Limit my searches, and those of AIs I create, to DEPTH plies.
+     *  Returns this AI. */
+    AI setDepthLimit(int depth) {
+        _depthLimit = depth;
+        return this;
+    }
+
+    /** Have me, and AIs I create, search with THREADS threads.  Returns
+     *  this AI. */
+    AI setThreads(int threads) {
+        _threads = Math.max(1, threads);
+        _searches = null;
+        return this;
+    }
+
+    /** Have me, and AIs I create, score positions with Evaluators
+     *  created from EVALUATOR.  Returns this AI. */
+    AI setEvaluator(Evaluator evaluator) {
+        _evaluator = evaluator;
+        _searches = null;
+        return this;
+    }
+
+    /** Have me, and AIs I create, search queen moves and spear throws
+     *  as separate plies iff SPLIT (see Search).  Depth limits are still
+     *  in whole moves.  Returns this AI. */
+    AI setSplitPly(boolean split) {
+        _splitPly = split;
+        _searches = null;
+        return this;
+    }
+
+    /** Have me, and AIs I create, ponder during the opponent's turn iff
+     *  PONDER (see ponder).  Returns this AI. */
+    AI setPonder(boolean ponder) {
+        _ponder = ponder;
+        return this;
+    }
+
+    /** Have me, and AIs I create, take moves from BOOK (see
+     *  OpeningBook) in positions it covers, or from no book if BOOK is
+     *  null.  Returns this AI. */
+    AI setBook(OpeningBook book) {
+        _book = book;
+        return this;
+    }
+
+    /** Return my transposition table, creating it if need be.  It lasts
+     *  as long as I do, so later moves benefit from earlier searches. */
+    TranspositionTable table() {
+        if (_table == null) {
+            _table = new TranspositionTable(_tableBytes);
+        }
+        return _table;
+    }
+
+    /** Return the depth of the last search that finished, in half-plies
+     *  if I search split-ply. */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the value (positive for WHITE) found by the last search
+     *  that finished. */
+    int lastValue() {
+        return _lastValue;
+    }
+
+    /** Return the total number of nodes searched by all my threads. */
+    long nodes() {
+        long total = 0;
+        for (int k = 0; _searches != null && k < _searches.length; k += 1) {
+            total += _searches[k].nodes();
+        }
+        return total;
+    }
+
+    /** Return the number of moves found by continuing a background
+     *  search after a ponder hit (see ponder). */
+    int ponderHits() {
+        return _ponderHits;
+    }
+
+    /** Return the number of moves I have taken from my book. */
+    int bookMoves() {
+        return _bookMoves;
     }
 
     @Override
@@ -37,118 +155,245 @@ class AI extends Player {
         return move.toString();
     }
 
+    /** If I ponder (see setPonder) and it is my opponent's turn, start
+     *  searching in the background until my own turn comes.  I search
+     *  the position after the reply that my transposition table
+     *  predicts, if there is one, and otherwise the current position,
+     *  which covers all replies.  Split-ply searches record only the
+     *  queen halves of moves in positions with no spear pending, so a
+     *  split-ply AI makes no prediction.  Does nothing if I am already
+     *  pondering the current position.
+     *
+     *  If the opponent makes the predicted reply (a "ponder hit"),
+     *  findMove lets the background search go on until my time limit,
+     *  counted from the start of pondering, has passed, and then takes
+     *  its move.  Otherwise, findMove stops it and searches as usual,
+     *  helped by what pondering left in the transposition table. */
+    @Override
+    void ponder() {
+        Board b = board();
+        if (!_ponder || b.turn() == myPiece() || b.winner() != null
+            || (_pondering != null && _ponderFrom == b.key())) {
+            return;
+        }
+        stopPondering();
+        Board position = new Board(b);
+        int move = _splitPly ? 0 : Search.tableMove(table(), b);
+        Move reply = move == 0 ? null : Move.mv(move);
+        _predicted = reply != null && b.isLegal(reply);
+        if (_predicted) {
+            position.makeMove(reply.packed());
+            if (position.winner() != null) {
+                return;
+            }
+        }
+        _ponderFrom = b.key();
+        _ponderTo = position.key();
+        _ponderStart = System.nanoTime();
+        _stop.set(false);
+        _pondering = POOL.submit(() ->
+            search(position, _ponderStart + PONDER_NANOS));
+    }
+
+    @Override
+    void stopPondering() {
+        if (_pondering != null) {
+            _stop.set(true);
+            ponderResult();
+        }
+    }
+
+    /** Return the result of my background search, after waiting for it
+     *  to finish, and note that I am no longer pondering. */
+    private Search ponderResult() {
+        try {
+            return _pondering.get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            _pondering = null;
+        }
+    }
+
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
+     *  is a move.  Searches to depths 1, 2, ... in turn until my time
+     *  limit runs out, and returns the best move of the deepest search
+     *  that finished.
+     *
+     *  With more than one thread, this is a "lazy SMP" search: each
+     *  helper thread runs the same iterative deepening on its own copy
+     *  of the board, half of them starting one ply deeper than the main
+     *  thread, and all of them share the transposition table.  The
+     *  threads mostly skip each other's work through the table, and
+     *  whichever finishes the deepest iteration supplies the move.
+     *
+     *  Once the queens of the two sides are in separate regions, and
+     *  the Endgame solver can count the moves of both within its
+     *  budget, it supplies the move and value instead, without
+     *  searching.  If I have been pondering, the background search ends
+     *  first, and may supply the move itself (see ponder).  In
+     *  positions covered by my opening book, if any, the book supplies
+     *  the move. */
     private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+        Board b = board();
+        int entry = _book == null ? -1 : _book.bestEntry(b);
+        if (entry != -1) {
+            stopPondering();
+            _bookMoves += 1;
+            _completedDepth = 0;
+            _lastValue = _book.value(entry);
+            return Move.mv(_book.move(entry, b));
         }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        Move bestmove = null;
-        if (sense == 1) {
-            int bestVal = -INFTY;
-            for (Iterator<Move> whitemoves = board.legalMoves(WHITE);
-                 whitemoves.hasNext(); ) {
-                Move currmoveWhite = whitemoves.next();
-                board.makeMove(currmoveWhite);
-                int currVal =
-                        findMove(board, depth - 1,
-                                false, -1, alpha, beta);
-                board.undo();
-                if (currVal >= bestVal) {
-                    bestmove = currmoveWhite;
-                    bestVal = currVal;
-                }
-                alpha = Math.max(alpha, currVal);
-                if (beta <= alpha) {
-                    break;
+        Search best = null;
+        if (_pondering != null) {
+            if (_predicted && b.key() == _ponderTo) {
+                long wait = _ponderStart + _timeLimit * 1_000_000L
+                    - System.nanoTime();
+                try {
+                    _pondering.get(wait, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException | InterruptedException
+                         | ExecutionException excp) {
+                    /* Ignore: any failure is reported below. */
                 }
+                _ponderHits += 1;
+                _stop.set(true);
+                best = ponderResult();
+            } else {
+                stopPondering();
             }
+        }
+        int endgameValue = best == null ? _endgame.value(b)
+            : Endgame.UNKNOWN;
+        int endgameMove = endgameValue == Endgame.UNKNOWN ? 0
+            : _endgame.bestMove(b);
+        if (endgameMove != 0) {
+            _completedDepth = 0;
+            _lastValue = endgameValue;
+            return Move.mv(endgameMove);
+        }
+        if (best == null) {
+            _stop.set(false);
+            best = search(b, System.nanoTime() + _timeLimit * 1_000_000L);
+        }
+        _completedDepth = best.completedDepth();
+        _lastValue = best.value();
+        return Move.mv(best.bestMove());
+    }
 
-            if (saveMove) {
-                _lastFoundMove = bestmove;
+    /** Search BOARD with all my threads until DEADLINE (as given by
+     *  System.nanoTime) or until the stop flag is set, and return the
+     *  Search that finished the deepest iteration (see findMove).  The
+     *  caller clears the stop flag first, so that a stop requested
+     *  before this starts is not lost.  Each call starts a new
+     *  generation of my transposition table's entries. */
+    private Search search(Board b, long deadline) {
+        table().newSearch();
+        Search[] searches = searches();
+        int ply = _splitPly ? 2 : 1;
+        int limit = maxDepth(b) * ply;
+        Future<?>[] helpers = new Future<?>[searches.length - 1];
+        for (int k = 1; k < searches.length; k += 1) {
+            Search helper = searches[k];
+            int first = Math.min(limit, ply + k % 2);
+            helpers[k - 1] = POOL.submit(() ->
+                helper.iterate(b, first, limit, deadline, false));
+        }
+        Search best = searches[0];
+        best.iterate(b, ply, limit, deadline, true);
+        for (int k = 1; k < searches.length; k += 1) {
+            try {
+                helpers[k - 1].get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException(excp);
             }
-
-            return bestVal;
-
-        } else {
-            int bestVal = INFTY;
-            for (Iterator<Move> blackmoves = board.legalMoves(BLACK);
-                 blackmoves.hasNext(); ) {
-                Move currmoveBlack = blackmoves.next();
-                board.makeMove(currmoveBlack);
-                int currVal = findMove(board, depth - 1,
-                        false, 1, alpha, beta);
-                board.undo();
-                if (currVal <= bestVal) {
-                    bestmove = currmoveBlack;
-                    bestVal = currVal;
-                }
-                alpha = Math.min(alpha, currVal);
-                if (beta <= alpha) {
-                    break;
-                }
-                if (saveMove) {
-                    _lastFoundMove = bestmove;
-                }
+            if (searches[k].completedDepth() > best.completedDepth()) {
+                best = searches[k];
             }
-            return bestVal;
         }
-
+        return best;
     }
 
-
-
+    /** Return my Searches, one per thread, creating them if need be. */
+    private Search[] searches() {
+        if (_searches == null) {
+            _searches = new Search[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _searches[k] =
+                    new Search(_evaluator.create(), table(), _stop,
+                               _splitPly);
+            }
+        }
+        return _searches;
+    }
 
     /** Return a heuristically determined maximum search depth
      *  based on characteristics of BOARD. */
     private int maxDepth(Board board) {
         int N = board.numMoves();
-        return 1;
+        return Math.max(1, Math.min(_depthLimit,
+                                    Search.MAX_GAME_MOVES - N));
     }
 
+    /** Default time limit per move, in milliseconds. */
+    static final long DEFAULT_TIME_LIMIT = 1000;
+    /** Default memory budget for the transposition table, in bytes. */
+    static final long DEFAULT_TABLE_BYTES = 16 << 20;
+    /** Time limit of a background search (see ponder), in nanoseconds:
+     *  in effect, none. */
+    private static final long PONDER_NANOS = TimeUnit.DAYS.toNanos(1);
+    /** Threads running the helper searches and background searches of
+     *  all AIs, and the helper playouts of all MCTSPlayers.  Threads
+     *  are created as needed, reused, and dropped after a minute idle,
+     *  so players that are simply discarded, as in a Tournament, leave
+     *  none behind.  They are daemons, so they never keep the program
+     *  alive. */
+    static final ExecutorService POOL =
+        Executors.newCachedThreadPool((r) -> {
+            Thread thread = new Thread(r, "amazons-search");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
-        }
-        Iterator<Move> whiteIterator = board.legalMoves(WHITE);
-        Iterator<Move> blackIterator = board.legalMoves(BLACK);
-        int white = 0;
-        int black = 0;
-
-        while (whiteIterator.hasNext()) {
-            whiteIterator.next();
-            white += 1;
-        }
-        while (blackIterator.hasNext()) {
-            blackIterator.next();
-            black += 1;
-        }
-        return white - black;
-    }
+    /** Time limit per move, in milliseconds. */
+    private long _timeLimit = DEFAULT_TIME_LIMIT;
+    /** Maximum search depth. */
+    private int _depthLimit = Search.MAX_GAME_MOVES;
+    /** Number of search threads. */
+    private int _threads = 1;
+    /** Memory budget for my transposition table, in bytes. */
+    private long _tableBytes = DEFAULT_TABLE_BYTES;
+    /** True iff my searches are split-ply. */
+    private boolean _splitPly;
+    /** True iff I ponder during the opponent's turn. */
+    private boolean _ponder;
+    /** My opening book, or null if none. */
+    private OpeningBook _book;
+    /** Template for my searches' evaluation functions. */
+    private Evaluator _evaluator = new TerritoryEvaluator();
+
+    /** My transposition table, or null if not yet created. */
+    private TranspositionTable _table;
+    /** My per-thread search states, or null if not yet created. */
+    private Search[] _searches;
+    /** Solver for positions whose regions have separated. */
+    private final Endgame _endgame = new Endgame();
+    /** Flag telling all my searches to stop. */
+    private final AtomicBoolean _stop = new AtomicBoolean();
+    /** Depth and value of the last search that finished. */
+    private int _completedDepth, _lastValue;
+
+    /** My background search, or null if I am not pondering. */
+    private Future<Search> _pondering;
+    /** Keys of the position in which I started pondering and of the
+     *  position I am searching. */
+    private long _ponderFrom, _ponderTo;
+    /** True iff the position I am pondering follows a predicted reply,
+     *  rather than being the one in which I started. */
+    private boolean _predicted;
+    /** When I started pondering, as given by System.nanoTime. */
+    private long _ponderStart;
+    /** Number of ponder hits so far. */
+    private int _ponderHits;
+    /** Number of moves taken from my book so far. */
+    private int _bookMoves;
 }
@@ -0,0 +1,341 @@
+package amazons;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/** Microbenchmarks of the hot paths of Board, Move, the evaluators and
+ *  the search, each on an opening, a middlegame and an endgame position.
+ *
+ *  Each benchmark is an operation returning a long (accumulated into a
+ *  sink so that the JIT cannot discard it).  It is first run for a
+ *  warmup period, then for several timed iterations, each calling it
+ *  repeatedly until the iteration's time is up; the result is the
+ *  average time per call in each iteration.  Results print as a table
+ *  and, with --json=FILE, are also written as JSON, so that runs on
+ *  different commits can be compared.
+ *
+ *  Usage: java amazons.Bench [--json=FILE] [--time=MILLIS]
+ *         [--iterations=N] [FILTER]
+ *  runs the benchmarks whose names contain FILTER (all by default),
+ *  spending MILLIS milliseconds (default 500) on warmup and on each of
+ *  N (default 5) timed iterations.
+ *  @author JaniceNg
+ */
+public class Bench {
+
+    /** Run the benchmarks selected by ARGS (see the class comment). */
+    public static void main(String... args) {
+        String json = null, filter = "";
+        long millis = 500;
+        int iterations = 5;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--json=")) {
+                    json = arg.substring("--json=".length());
+                } else if (arg.startsWith("--time=")) {
+                    millis = Long.parseLong(arg.substring("--time=".length()));
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = Integer.parseInt(
+                        arg.substring("--iterations=".length()));
+                } else if (arg.startsWith("--")) {
+                    throw new NumberFormatException(arg);
+                } else {
+                    filter = arg;
+                }
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Usage: java amazons.Bench [--json=FILE]"
+                               + " [--time=MILLIS] [--iterations=N]"
+                               + " [FILTER]");
+            System.exit(1);
+        }
+        Bench bench = new Bench(millis, iterations);
+        bench.runAll(filter);
+        if (json != null) {
+            try (PrintStream out =
+                 new PrintStream(new FileOutputStream(json))) {
+                bench.writeJson(out);
+            } catch (IOException excp) {
+                System.err.printf("Could not write %s: %s%n", json,
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /** A harness spending MILLIS milliseconds on warmup and on each of
+     *  ITERATIONS timed iterations of each benchmark. */
+    Bench(long millis, int iterations) {
+        _nanos = millis * 1_000_000L;
+        _iterations = iterations;
+    }
+
+    /** Run every benchmark whose name contains FILTER, on each
+     *  position, printing the results as they come. */
+    void runAll(String filter) {
+        System.out.printf("%-28s %-10s %14s %10s%n", "benchmark",
+                          "position", "ns/op", "+/-");
+        String[] names = { "opening", "middlegame", "endgame" };
+        Board[] positions = {
+            new Board(), position(MIDDLEGAME_PLY), position(ENDGAME_PLY)
+        };
+        for (int p = 0; p < positions.length; p += 1) {
+            Board board = positions[p];
+            for (String name : BENCHMARKS) {
+                if (name.contains(filter)) {
+                    report(name, names[p], run(benchmark(name, board)));
+                }
+            }
+        }
+    }
+
+    /** Write all results so far to OUT as a JSON array of objects. */
+    void writeJson(PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < _results.size(); i += 1) {
+            Result r = _results.get(i);
+            StringBuilder samples = new StringBuilder();
+            for (int k = 0; k < r.samples.length; k += 1) {
+                samples.append(k == 0 ? "" : ", ")
+                    .append(String.format("%.1f", r.samples[k]));
+            }
+            out.printf("  {\"benchmark\": \"%s\", \"position\": \"%s\", "
+                       + "\"nsPerOp\": %.1f, \"error\": %.1f, "
+                       + "\"samples\": [%s]}%s%n",
+                       r.name, r.position, r.mean, r.error, samples,
+                       i == _results.size() - 1 ? "" : ",");
+        }
+        out.println("]");
+    }
+
+    /** Return the operation for the benchmark called NAME, running on
+     *  (a copy of) BOARD. */
+    private LongSupplier benchmark(String name, Board board) {
+        Board b = new Board(board);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(b.turn(), moves);
+        switch (name) {
+        case "Board.makeMove+undo": {
+            int[] next = { 0 };
+            return () -> {
+                int move = moves[next[0]];
+                next[0] = next[0] + 1 == n ? 0 : next[0] + 1;
+                b.makeMove(move);
+                b.undo();
+                return move;
+            };
+        }
+        case "Board.legalMoves(buffer)":
+            return () -> b.legalMoves(b.turn(), moves);
+        case "Board.legalMoves()":
+            return () -> {
+                long count = 0;
+                for (Iterator<Move> i = b.legalMoves(); i.hasNext(); ) {
+                    i.next();
+                    count += 1;
+                }
+                return count;
+            };
+        case "Board.reachableFrom":
+            return () -> {
+                long count = 0;
+                for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                    if (b.get(k) == b.turn()) {
+                        Iterator<Square> i =
+                            b.reachableFrom(Square.sq(k), null);
+                        for (; i.hasNext(); i.next()) {
+                            count += 1;
+                        }
+                    }
+                }
+                return count;
+            };
+        case "Board.copy": {
+            Board copy = new Board();
+            return () -> {
+                copy.copy(b);
+                return copy.key();
+            };
+        }
+        case "Board.makeMove+canonicalKey": {
+            int[] next = { 0 };
+            return () -> {
+                int move = moves[next[0]];
+                next[0] = next[0] + 1 == n ? 0 : next[0] + 1;
+                b.makeMove(move);
+                long key = b.canonicalKey();
+                b.undo();
+                return key;
+            };
+        }
+        case "Move.mv(String)": {
+            String[] text = moveText(moves, n);
+            int[] next = { 0 };
+            return () -> {
+                Move move = Move.mv(text[next[0]]);
+                next[0] = next[0] + 1 == n ? 0 : next[0] + 1;
+                return move.packed();
+            };
+        }
+        case "MoveParser.parse": {
+            String[] text = moveText(moves, n);
+            int[] next = { 0 };
+            return () -> {
+                int move = MoveParser.parse(text[next[0]]);
+                next[0] = next[0] + 1 == n ? 0 : next[0] + 1;
+                return move;
+            };
+        }
+        case "MobilityEvaluator.score": {
+            Evaluator eval = new MobilityEvaluator();
+            return () -> eval.score(b);
+        }
+        case "TerritoryEvaluator.score": {
+            Evaluator eval = new TerritoryEvaluator();
+            return () -> eval.score(b);
+        }
+        case "Search.depth2": {
+            TranspositionTable table = new TranspositionTable(1 << 20);
+            AtomicBoolean stop = new AtomicBoolean();
+            Search search = new Search(new TerritoryEvaluator(), table,
+                                       stop);
+            return () -> {
+                table.clear();
+                stop.set(false);
+                search.iterate(b, 1, 2, System.nanoTime() + HOUR, true);
+                return search.bestMove();
+            };
+        }
+        default:
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    /** Return the text of the first N packed moves in MOVES. */
+    private static String[] moveText(int[] moves, int n) {
+        String[] text = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            text[i] = Move.mv(moves[i]).toString();
+        }
+        return text;
+    }
+
+    /** Return the time per call of OP in each of my timed iterations,
+     *  after warming it up. */
+    private double[] run(LongSupplier op) {
+        iteration(op);
+        double[] samples = new double[_iterations];
+        for (int k = 0; k < _iterations; k += 1) {
+            samples[k] = iteration(op);
+        }
+        return samples;
+    }
+
+    /** Call OP repeatedly for my iteration time, and return the average
+     *  nanoseconds per call. */
+    private double iteration(LongSupplier op) {
+        long calls = 0, batch = 1;
+        long start = System.nanoTime(), elapsed;
+        do {
+            for (long i = 0; i < batch; i += 1) {
+                _sink += op.getAsLong();
+            }
+            calls += batch;
+            batch *= 2;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < _nanos);
+        return (double) elapsed / calls;
+    }
+
+    /** Record and print the SAMPLES of benchmark NAME on POSITION. */
+    private void report(String name, String position, double[] samples) {
+        double sum = 0, sumSq = 0;
+        for (double s : samples) {
+            sum += s;
+            sumSq += s * s;
+        }
+        double mean = sum / samples.length;
+        double error = samples.length < 2 ? 0
+            : Math.sqrt(Math.max(0, sumSq / samples.length - mean * mean));
+        _results.add(new Result(name, position, mean, error, samples));
+        System.out.printf("%-28s %-10s %14.1f %10.1f%n", name, position,
+                          mean, error);
+    }
+
+    /** Return the position after PLY random moves from the initial
+     *  position, always the same for the same PLY. */
+    private static Board position(int ply) {
+        Random random = new Random(POSITION_SEED);
+        int[] moves = new int[Board.MAX_MOVES];
+        while (true) {
+            Board board = new Board();
+            int k;
+            for (k = 0; k < ply; k += 1) {
+                int n = board.legalMoves(board.turn(), moves);
+                if (n == 0) {
+                    break;
+                }
+                board.makeMove(moves[random.nextInt(n)]);
+            }
+            if (k == ply && board.hasMove(board.turn())) {
+                return board;
+            }
+        }
+    }
+
+    /** One benchmark's results. */
+    private static class Result {
+        /** Results SAMPLES (ns/op), with mean MEAN and standard
+         *  deviation ERROR, of benchmark NAME on POSITION. */
+        Result(String name, String position, double mean, double error,
+               double[] samples) {
+            this.name = name;
+            this.position = position;
+            this.mean = mean;
+            this.error = error;
+            this.samples = samples;
+        }
+
+        /** Benchmark and position names. */
+        private final String name, position;
+        /** Mean and standard deviation of the samples. */
+        private final double mean, error;
+        /** Nanoseconds per call in each timed iteration. */
+        private final double[] samples;
+    }
+
+    /** Names of the benchmarks, in the order run. */
+    private static final String[] BENCHMARKS = {
+        "Board.makeMove+undo", "Board.legalMoves(buffer)",
+        "Board.legalMoves()", "Board.reachableFrom", "Board.copy",
+        "Board.makeMove+canonicalKey", "Move.mv(String)",
+        "MoveParser.parse", "MobilityEvaluator.score",
+        "TerritoryEvaluator.score", "Search.depth2"
+    };
+
+    /** Plies of random play before the middlegame and endgame
+     *  positions. */
+    private static final int MIDDLEGAME_PLY = 30, ENDGAME_PLY = 60;
+    /** Seed for the random play giving the positions. */
+    private static final long POSITION_SEED = 61;
+
+    /** An hour, in nanoseconds (a search deadline never reached). */
+    private static final long HOUR = 3_600_000_000_000L;
+
+    /** Nanoseconds of warmup and of each timed iteration. */
+    private final long _nanos;
+    /** Number of timed iterations. */
+    private final int _iterations;
+    /** Results so far. */
+    private final List<Result> _results = new ArrayList<>();
+    /** Accumulates benchmark results so that they are not optimized
+     *  away. */
+    private long _sink;
+}
@@ -1,9 +1,10 @@
 package amazons;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.Stack;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static amazons.Piece.*;
 
@@ -15,14 +16,17 @@ import static amazons.Piece.*;
  */
 class Board {
     /**
-     * Creates a 2D array for board.
+     * The number of squares on a side of the board.
      */
-    private Piece[][] board2d;
+    static final int SIZE = 10;
 
     /**
-     * The number of squares on a side of the board.
+     * An upper bound on the number of legal moves for one side when it
+     * has at most four queens: each queen reaches at most 35 squares,
+     * and from each of those can throw to at most 35.  A buffer this
+     * long suffices for legalMoves(Piece, int[]) in any game position.
      */
-    static final int SIZE = 10;
+    static final int MAX_MOVES = 4 * 35 * 35;
 
     /**
      * Initializes a game board with SIZE squares on a side in the
@@ -43,38 +47,65 @@ class Board {
      * Copies MODEL into me.
      */
     void copy(Board model) {
-        this.board2d = new Piece[SIZE][SIZE];
-        for (int i = 0; i < SIZE; i += 1) {
-            for (int j = 0; j < SIZE; j += 1) {
-                this.board2d[i][j] = model.board2d[i][j];
-            }
-        }
+        System.arraycopy(model._white, 0, _white, 0, SquareSet.WORDS);
+        System.arraycopy(model._black, 0, _black, 0, SquareSet.WORDS);
+        System.arraycopy(model._spears, 0, _spears, 0, SquareSet.WORDS);
         this._turn = model._turn;
         this._winner = model._winner;
+        this._key = model._key;
+        this._moves = model._moves;
+        this._pending = model._pending;
+        if (_log.length < _moves) {
+            _log = new int[model._log.length];
+            _keyLog = new long[model._log.length];
+        }
+        System.arraycopy(model._log, 0, _log, 0, _moves);
+        System.arraycopy(model._keyLog, 0, _keyLog, 0, _moves);
+    }
+
+    /** Bring me up to date with MODEL, which usually continues my game,
+     *  as for a long-lived search board following the game board.  If
+     *  my moves are the first of MODEL's, I just make the rest of them,
+     *  so that the cost is that of the moves made since I last caught
+     *  up, not that of the whole game.  Otherwise, I copy MODEL.
+     *  Returns the number of moves made, or -1 if I copied MODEL. */
+    int catchUp(Board model) {
+        int n = _moves;
+        if (_pending == NO_PENDING && model._pending == NO_PENDING
+            && n <= model._moves
+            && (n == 0 || move(n - 1) == model.move(n - 1))) {
+            for (int k = n; k < model._moves; k += 1) {
+                makeMove(model.move(k));
+            }
+            if (_key == model._key) {
+                return model._moves - n;
+            }
+        }
+        copy(model);
+        return -1;
     }
 
     /**
      * Clears the board to the initial position.
      */
     void init() {
-        board2d = new Piece[SIZE][SIZE];
-        for (int i = 0; i < SIZE; i += 1) {
-            for (int j = 0; j < SIZE; j += 1) {
-                board2d[i][j] = Piece.EMPTY;
-            }
-        }
+        SquareSet.clear(_white);
+        SquareSet.clear(_black);
+        SquareSet.clear(_spears);
         for (int w : WHITELIST) {
-            int col = w % 10;
-            int row = w / 10;
-            board2d[col][row] = Piece.WHITE;
+            SquareSet.add(_white, w);
         }
         for (int bl : BLACKLIST) {
-            int col = bl % 10;
-            int row = bl / 10;
-            board2d[col][row] = Piece.BLACK;
+            SquareSet.add(_black, bl);
         }
         _turn = WHITE;
         _winner = null;
+        _pending = NO_PENDING;
+        _moves = 0;
+        _key = 0;
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            _key ^= ZOBRIST[get(k).ordinal()][k];
+        }
     }
 
     /**
@@ -84,6 +115,110 @@ class Board {
         return _turn;
     }
 
+    /**
+     * Return the Zobrist key of the current position: the XOR of a fixed
+     * random number for each (piece, square) pair on the board, of
+     * another for BLACK to move, and of one for the square of a queen
+     * that has moved but not yet thrown its spear (see moveQueen).  Equal
+     * positions have equal keys, and makeMove, undo, the half-move
+     * methods and put keep the key up to date incrementally.
+     */
+    long key() {
+        return _key;
+    }
+
+    /**
+     * Return the key (see key()) of the image of my position under
+     * symmetry T (see Symmetry).
+     */
+    long key(int t) {
+        if (t == Symmetry.IDENTITY) {
+            return _key;
+        }
+        computeImages();
+        return _images[t];
+    }
+
+    /**
+     * Return the least of the keys of the images of my position under
+     * the symmetries (see key(int)), which is the same for all of them.
+     */
+    long canonicalKey() {
+        return key(canonicalTransform());
+    }
+
+    /**
+     * Return the symmetry taking my position to its image with the
+     * canonical key (see canonicalKey), the first one if there are
+     * several.  Unlike key(), the keys of the images are not kept up to
+     * date as moves are made, which would slow every move down, but
+     * computed from scratch, at the cost of a few XORs per occupied
+     * square, and then remembered until the position changes.
+     */
+    int canonicalTransform() {
+        computeImages();
+        int best = Symmetry.IDENTITY;
+        long least = _key;
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            if (_images[t] < least) {
+                best = t;
+                least = _images[t];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Set _images[t] to the key of the image of my position under each
+     * symmetry t other than the identity, unless it already holds them.
+     */
+    private void computeImages() {
+        if (_imagesKnown && _imagesOf == _key) {
+            return;
+        }
+        _imagesKnown = true;
+        _imagesOf = _key;
+        long turn = _turn == BLACK ? BLACK_TO_MOVE : 0;
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            _images[t] = turn;
+        }
+        addImages(IMAGES, _white, WHITE.ordinal());
+        addImages(IMAGES, _black, BLACK.ordinal());
+        addImages(IMAGES, _spears, SPEAR.ordinal());
+        if (_pending != NO_PENDING) {
+            int to = Move.toIndex(_pending);
+            _pendingSet[0] = _pendingSet[1] = 0;
+            SquareSet.add(_pendingSet, to);
+            addImages(PENDING_IMAGES, _pendingSet, 0);
+        }
+    }
+
+    /**
+     * XOR into _images[t], for each symmetry t other than the identity,
+     * the numbers NUMBERS[image(P, k) + t] (see IMAGES) of the squares k
+     * in SET.
+     */
+    private void addImages(long[] numbers, long[] set, int p) {
+        for (int w = 0; w < SquareSet.WORDS; w += 1) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                int k = 64 * w + Long.numberOfTrailingZeros(bits),
+                    base = image(p, k);
+                for (int t = 1; t < Symmetry.COUNT; t += 1) {
+                    _images[t] ^= numbers[base + t];
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the index in IMAGES of the Zobrist number of the image of
+     * square K holding the Piece with ordinal P under the identity, or
+     * in PENDING_IMAGES of that for a pending queen on K if P is 0.
+     */
+    private static int image(int p, int k) {
+        return (p * SIZE * SIZE + k) * Symmetry.COUNT;
+    }
+
     /**
      * Return the number of moves (that have not been undone) for this
      * board.
@@ -92,13 +227,33 @@ class Board {
         return _moves;
     }
 
+    /**
+     * Return move number K (counting from 0) of the game so far, packed
+     * (see Move.pack), where 0 <= K < numMoves().
+     */
+    int move(int k) {
+        return _log[k] & MOVE_MASK;
+    }
+
+    /**
+     * Undo moves until only the first PLY remain, where
+     * 0 <= PLY <= numMoves(), first undoing any pending queen move.
+     */
+    void rewind(int ply) {
+        if (spearPending()) {
+            undoQueen();
+        }
+        while (_moves > ply) {
+            undo();
+        }
+    }
+
     /**
      * Return the winner in the current position, or null if the game is
      * not yet finished.
      */
     Piece winner() {
-        Iterator<Move> iterator = legalMoves(_turn);
-        if (!iterator.hasNext()) {
+        if (!hasMove(_turn)) {
             _winner = _turn.opponent();
         }
         return _winner;
@@ -108,19 +263,52 @@ class Board {
      * Return the contents the square at S.
      */
     final Piece get(Square s) {
-        return board2d[s.col()][s.row()];
+        return get(s.index());
     }
 
-    /**
-     * Return the contents of the square at (COL, ROW), where
-     * 0 <= COL, ROW < 9.
-     */
     /**
      * Return the contents of the square at (COL, ROW), where
      * 0 <= COL, ROW <= 9.
      */
     final Piece get(int col, int row) {
-        return board2d[col][row];
+        return get(row * SIZE + col);
+    }
+
+    /**
+     * Return the contents of the square with index INDEX.
+     */
+    final Piece get(int index) {
+        int w = SquareSet.word(index);
+        long b = SquareSet.bit(index);
+        if ((_white[w] & b) != 0) {
+            return WHITE;
+        } else if ((_black[w] & b) != 0) {
+            return BLACK;
+        } else if ((_spears[w] & b) != 0) {
+            return SPEAR;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Return word WORD (see SquareSet) of the set of squares holding P
+     * (WHITE, BLACK or SPEAR), or of the empty squares if P is EMPTY.
+     */
+    final long squares(Piece p, int word) {
+        if (p == EMPTY) {
+            long empty = ~(_white[word] | _black[word] | _spears[word]);
+            return word == 0 ? empty : empty & SquareSet.HI_MASK;
+        }
+        return pieces(p)[word];
+    }
+
+    /**
+     * Return true iff the square with index INDEX is empty.
+     */
+    final boolean isEmpty(int index) {
+        int w = SquareSet.word(index);
+        return ((_white[w] | _black[w] | _spears[w])
+                & SquareSet.bit(index)) == 0;
     }
 
     /**
@@ -134,15 +322,15 @@ class Board {
      * Set square S to P.
      */
     final void put(Piece p, Square s) {
-        board2d[s.col()][s.row()] = p;
+        set(p, s.index());
+        _winner = null;
     }
 
     /**
      * Set square (COL, ROW) to P.
      */
     final void put(Piece p, int col, int row) {
-        board2d[col][row] = p;
-        _winner = null;
+        put(p, Square.sq(col, row));
     }
 
     /**
@@ -152,6 +340,38 @@ class Board {
         put(p, col - 'a', row - '1');
     }
 
+    /**
+     * Set the square with index INDEX to P.
+     */
+    private void set(Piece p, int index) {
+        _key ^= ZOBRIST[get(index).ordinal()][index]
+            ^ ZOBRIST[p.ordinal()][index];
+        SquareSet.remove(_white, index);
+        SquareSet.remove(_black, index);
+        SquareSet.remove(_spears, index);
+        long[] pieces = pieces(p);
+        if (pieces != null) {
+            SquareSet.add(pieces, index);
+        }
+    }
+
+    /**
+     * Return the occupancy set holding P (WHITE, BLACK, or SPEAR), or
+     * null if P is EMPTY.
+     */
+    private long[] pieces(Piece p) {
+        switch (p) {
+        case WHITE:
+            return _white;
+        case BLACK:
+            return _black;
+        case SPEAR:
+            return _spears;
+        default:
+            return null;
+        }
+    }
+
     /**
      * Return true iff FROM - TO is an unblocked queen move on the current
      * board, ignoring the contents of ASEMPTY, if it is encountered.
@@ -163,36 +383,29 @@ class Board {
         if (!from.isQueenMove(to)) {
             throw new NoSuchElementException("Not a move");
         }
-        if (!get(to).equals(EMPTY) && to != asEmpty || to == null) {
-            return false;
-        } else {
-            int direction = from.direction(to);
-            Square next = from.nextsquare(direction, 1, 1);
-
-            while (next != to) {
-                if (!get(next).equals(EMPTY) && next != asEmpty) {
-                    return false;
-                } else {
-                    next = next.nextsquare(direction, 1, 1);
-
-                }
+        int f = from.index(), t = to.index();
+        long lo = _white[0] | _black[0] | _spears[0],
+            hi = _white[1] | _black[1] | _spears[1];
+        if (asEmpty != null) {
+            long clear = ~SquareSet.bit(asEmpty.index());
+            if (SquareSet.word(asEmpty.index()) == 0) {
+                lo &= clear;
+            } else {
+                hi &= clear;
             }
         }
-        return true;
+        return !SquareSet.contains(lo, hi, t)
+            && (lo & Square.between(f, t, 0)) == 0
+            && (hi & Square.between(f, t, 1)) == 0;
     }
 
 
     /**
-     * Return true iff FROM is a valid starting square for a move.
+     * Return true iff FROM is a valid starting square for a move: it
+     * holds a queen of the side to move.
      */
     boolean isLegal(Square from) {
-        if (from.equals(WHITE)) {
-            return turn().equals(WHITE);
-        }
-        if (from.equals(BLACK)) {
-            return turn().equals(BLACK);
-        }
-        return false;
+        return get(from) == turn();
     }
 
     /**
@@ -200,7 +413,8 @@ class Board {
      * spear throwing.
      */
     boolean isLegal(Square from, Square to) {
-        return from.isQueenMove(to);
+        return isLegal(from) && from.isQueenMove(to)
+            && isUnblockedMove(from, to, null);
     }
 
     /**
@@ -208,7 +422,8 @@ class Board {
      * position.
      */
     boolean isLegal(Square from, Square to, Square spear) {
-        return isLegal(from, to) && to.isQueenMove(spear);
+        return isLegal(from, to) && to.isQueenMove(spear)
+            && isUnblockedMove(to, spear, from);
     }
 
     /**
@@ -223,18 +438,7 @@ class Board {
      * Move FROM-TO(SPEAR), assuming this is a legal move.
      */
     void makeMove(Square from, Square to, Square spear) {
-        Piece curr = get(from);
-        put(EMPTY, from);
-        put(curr, to);
-        put(SPEAR, spear);
-        _moves += 1;
-        if (turn().equals(WHITE)) {
-            _turn = BLACK;
-        } else {
-            _turn = WHITE;
-        }
-        Move moves = Move.mv(from, to, spear);
-        _stack.push(moves);
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
     }
 
     /**
@@ -244,18 +448,107 @@ class Board {
         makeMove(move.from(), move.to(), move.spear());
     }
 
+    /**
+     * Move according to the packed move MOVE (see Move.pack), assuming
+     * it is a legal move.
+     */
+    void makeMove(int move) {
+        moveQueen(move);
+        throwSpear(move);
+    }
+
     /**
      * Undo one move.  Has no effect on the initial board.
      */
     void undo() {
-        Move remove = _stack.pop();
-        put(Piece.EMPTY, remove.spear());
-        put(get(remove.to()), remove.from());
-        put(Piece.EMPTY, remove.to());
+        undoSpear();
+        undoQueen();
+    }
+
+    /**
+     * Make the first half of the packed move MOVE: move the queen from
+     * its from square to its to square, ignoring its spear.  Assumes
+     * that this is legal for the side to move and that no spear is
+     * pending.  The turn does not change until throwSpear completes the
+     * move.
+     */
+    void moveQueen(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        set(get(from), to);
+        set(EMPTY, from);
+        _pending = move & QUEEN_MOVE_MASK;
+        _key ^= PENDING[to];
+    }
+
+    /**
+     * Complete the pending move (see moveQueen) by throwing a spear to
+     * the spear square of the packed move MOVE, assuming that is legal.
+     */
+    void throwSpear(int move) {
+        if (_moves == _log.length) {
+            _log = Arrays.copyOf(_log, 2 * _moves);
+            _keyLog = Arrays.copyOf(_keyLog, 2 * _moves);
+        }
+        _log[_moves] = _pending | (move & ~QUEEN_MOVE_MASK)
+            | (winnerCode(_winner) << WINNER_SHIFT);
+        _keyLog[_moves] = _key;
+        _moves += 1;
+        int to = Move.toIndex(_pending), spear = Move.spearIndex(move);
+        SquareSet.add(_spears, spear);
+        _key ^= ZOBRIST[SPEAR.ordinal()][spear] ^ PENDING[to]
+            ^ BLACK_TO_MOVE;
+        _turn = _turn.opponent();
+        _winner = null;
+        _pending = NO_PENDING;
+    }
+
+    /**
+     * Undo the last throwSpear (or the second half of the last move),
+     * leaving its queen move pending.
+     */
+    void undoSpear() {
         _moves -= 1;
+        int entry = _log[_moves];
+        SquareSet.remove(_spears, Move.spearIndex(entry & MOVE_MASK));
+        _pending = entry & QUEEN_MOVE_MASK;
+        _key = _keyLog[_moves];
+        _winner = winnerOf(entry >>> WINNER_SHIFT);
         _turn = _turn.opponent();
     }
 
+    /**
+     * Return the code for WINNER (a value of _winner) stored in _log.
+     */
+    private static int winnerCode(Piece winner) {
+        return winner == null ? 0 : winner == WHITE ? 1 : 2;
+    }
+
+    /**
+     * Return the value of _winner whose code (see winnerCode) is CODE.
+     */
+    private static Piece winnerOf(int code) {
+        return code == 0 ? null : code == 1 ? WHITE : BLACK;
+    }
+
+    /**
+     * Undo the pending queen move (see moveQueen).
+     */
+    void undoQueen() {
+        int from = Move.fromIndex(_pending), to = Move.toIndex(_pending);
+        set(get(to), from);
+        set(EMPTY, to);
+        _key ^= PENDING[to];
+        _pending = NO_PENDING;
+    }
+
+    /**
+     * Return true iff a queen has moved (see moveQueen) and not yet
+     * thrown its spear.
+     */
+    boolean spearPending() {
+        return _pending != NO_PENDING;
+    }
+
 
     /**
      * Return an Iterator over the Squares that are reachable by an
@@ -285,6 +578,171 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /**
+     * Store all legal moves on the current board for SIDE (regardless of
+     * whose turn it is) into MOVES in packed form (see Move.pack), in the
+     * same order as legalMoves(SIDE), and return how many there are.
+     * MOVES must have room for all of them; MAX_MOVES is enough for any
+     * game position.  Unlike legalMoves(SIDE), this creates no objects,
+     * so searches can reuse one buffer per ply.
+     */
+    int legalMoves(Piece side, int[] moves) {
+        long[] queens = pieces(side);
+        int n = 0;
+        for (int from = SquareSet.next(queens, 0); from >= 0;
+             from = SquareSet.next(queens, from + 1)) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (!isEmpty(to)) {
+                        break;
+                    }
+                    int queenMove = Move.pack(from, to, 0);
+                    for (int sdir = 0; sdir < 8; sdir += 1) {
+                        for (int spear : Square.ray(to, sdir)) {
+                            if (spear != from && !isEmpty(spear)) {
+                                break;
+                            }
+                            moves[n] = queenMove | Move.pack(0, 0, spear);
+                            n += 1;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store the queen halves (see moveQueen) of all legal moves on the
+     * current board for SIDE into MOVES, packed with spear square 0, and
+     * return how many there are.  Assumes no spear is pending.
+     */
+    int queenMoves(Piece side, int[] moves) {
+        long[] queens = pieces(side);
+        int n = 0;
+        for (int from = SquareSet.next(queens, 0); from >= 0;
+             from = SquareSet.next(queens, from + 1)) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (!isEmpty(to)) {
+                        break;
+                    }
+                    moves[n] = Move.pack(from, to, 0);
+                    n += 1;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Store all ways of completing the pending move (see moveQueen) into
+     * MOVES as packed whole moves, and return how many there are.
+     */
+    int spearMoves(int[] moves) {
+        int to = Move.toIndex(_pending);
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int spear : Square.ray(to, dir)) {
+                if (!isEmpty(spear)) {
+                    break;
+                }
+                moves[n] = _pending | Move.pack(0, 0, spear);
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return true iff SIDE has a legal move on the current board
+     * (regardless of whose turn it is).  A queen can move iff one of
+     * its neighbors is empty, since it can then step there and throw
+     * its spear back, so this needs no move generation.
+     */
+    boolean hasMove(Piece side) {
+        long[] queens = pieces(side);
+        long emptyLo = squares(EMPTY, 0), emptyHi = squares(EMPTY, 1);
+        for (int dir = 0; dir < 8; dir += 1) {
+            if ((SquareSet.shiftLo(queens[0], queens[1], dir) & emptyLo) != 0
+                || (SquareSet.shiftHi(queens[0], queens[1], dir)
+                    & emptyHi) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of legal moves for SIDE on the current board
+     * (regardless of whose turn it is): the same as legalMoves(SIDE,
+     * MOVES) returns, but counted by adding up the lengths of the
+     * spear rays from each queen destination rather than by
+     * generating the moves.
+     */
+    int countMoves(Piece side) {
+        long[] queens = pieces(side);
+        int n = 0;
+        for (int from = SquareSet.next(queens, 0); from >= 0;
+             from = SquareSet.next(queens, from + 1)) {
+            long occLo = _white[0] | _black[0] | _spears[0],
+                occHi = _white[1] | _black[1] | _spears[1];
+            if (from < 64) {
+                occLo &= ~SquareSet.bit(from);
+            } else {
+                occHi &= ~SquareSet.bit(from);
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = Square.ray(from, dir);
+                int len = rayLength(from, dir, occLo, occHi);
+                for (int k = 0; k < len; k += 1) {
+                    for (int sdir = 0; sdir < 8; sdir += 1) {
+                        n += rayLength(ray[k], sdir, occLo, occHi);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of squares reachable by an unblocked queen move
+     * from the square with index FROM (as for reachableFrom(FROM,
+     * null)).
+     */
+    int reachableCount(int from) {
+        long occLo = _white[0] | _black[0] | _spears[0],
+            occHi = _white[1] | _black[1] | _spears[1];
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            n += rayLength(from, dir, occLo, occHi);
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of squares in direction DIR from the square with
+     * index FROM before the first one in the set OCCLO, OCCHI.  Finds
+     * that square with one bit scan of the ray's mask rather than by
+     * stepping along the ray.
+     */
+    private static int rayLength(int from, int dir, long occLo, long occHi) {
+        long lo = occLo & Square.rayMask(from, dir, 0),
+            hi = occHi & Square.rayMask(from, dir, 1);
+        if ((lo | hi) == 0) {
+            return Square.ray(from, dir).length;
+        }
+        int blocker;
+        if (RAY_STEP[dir] > 0) {
+            blocker = lo != 0 ? Long.numberOfTrailingZeros(lo)
+                : 64 + Long.numberOfTrailingZeros(hi);
+        } else {
+            blocker = hi != 0 ? 127 - Long.numberOfLeadingZeros(hi)
+                : 63 - Long.numberOfLeadingZeros(lo);
+        }
+        return (blocker - from) / RAY_STEP[dir] - 1;
+    }
+
     /**
      * An iterator used by reachableFrom.
      */
@@ -298,7 +756,7 @@ class Board {
             _from = from;
             _dir = 0;
             _steps = 0;
-            _asEmpty = asEmpty;
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
             toNext();
         }
 
@@ -309,6 +767,9 @@ class Board {
 
         @Override
         public Square next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
             Square next = _from.queenMove(_dir, _steps);
             toNext();
             return next;
@@ -317,30 +778,24 @@ class Board {
 
         /**
          * Advance _dir and _steps, so that the next valid Square is
-         * _steps steps in direction _dir from _from.
+         * _steps steps in direction _dir from _from.  Each ray is walked
+         * once: the squares before _steps are already known to be empty.
          */
         private void toNext() {
-            if (_dir < 1) {
-                _dir = 0;
-            }
             _steps += 1;
-            Square moveTo = _from.queenMove(_dir, _steps);
-            if (moveTo != null && isUnblockedMove(_from, moveTo, _asEmpty)) {
-                return;
-            } else {
-                _steps = 0;
-                _dir += 1;
-                if (hasNext()) {
-                    toNext();
+            while (_dir < 8) {
+                int[] ray = Square.ray(_from.index(), _dir);
+                if (_steps <= ray.length) {
+                    int k = ray[_steps - 1];
+                    if (k == _asEmpty || isEmpty(k)) {
+                        return;
+                    }
                 }
+                _steps = 1;
+                _dir += 1;
             }
         }
 
-
-
-
-
-
         /**
         * Starting square.
         */
@@ -354,9 +809,9 @@ class Board {
         */
         private int _steps;
         /**
-        * Square treated as empty.
+        * Index of the square treated as empty, or -1.
         */
-        private Square _asEmpty;
+        private int _asEmpty;
 
     }
 
@@ -366,29 +821,13 @@ class Board {
      */
     private class LegalMoveIterator implements Iterator<Move> {
         /**
-         * Current Spear.
-         */
-        private Square _spear;
-        /**
-         * Square it will land at.
-         */
-        private Square _to;
-        /**
-         * Starting square.
-         */
-        private Square _squarestart;
-        /**
-         * Current Piece Color iterating through .
-         */
-        private Piece _fromPiece;
-        /**
-         * Piece's next square position .
+         * Square the current piece will land at.
          */
         private Square _nextSquare;
         /**
-         * Starting Squares Iterator .
+         * Squares of the pieces not yet considered, as a bitboard.
          */
-        private Iterator<Square> _startingSquares;
+        private long[] _queens;
         /**
          * Moves from _start to consider, using Iterator .
          */
@@ -401,24 +840,21 @@ class Board {
          * Current starting square.
          */
         private Square _start;
-        /**
-
 
         /**
          * All legal moves for SIDE (WHITE or BLACK).
          */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
+            _queens = pieces(side).clone();
             _spearThrows = NO_SQUARES;
             _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
 
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _startingSquares.hasNext();
+            return _spearThrows.hasNext();
         }
 
 
@@ -439,28 +875,19 @@ class Board {
          * _spearThrows.
          */
         private void toNext() {
-            if (!hasNext()) {
-                return;
-            }
-            if (_spearThrows.hasNext()) {
-                return;
-            }
-            while (!_pieceMoves.hasNext()) {
-                if (!hasNext()) {
-                    return;
-                }
-                _start = _startingSquares.next();
-                while (get(_start) != _fromPiece) {
-                    if (!hasNext()) {
+            while (!_spearThrows.hasNext()) {
+                while (!_pieceMoves.hasNext()) {
+                    int k = SquareSet.next(_queens, 0);
+                    if (k < 0) {
                         return;
                     }
-                    _start = _startingSquares.next();
+                    SquareSet.remove(_queens, k);
+                    _start = Square.sq(k);
+                    _pieceMoves = reachableFrom(_start, null);
                 }
-                _pieceMoves = reachableFrom(_start, null);
+                _nextSquare = _pieceMoves.next();
+                _spearThrows = reachableFrom(_nextSquare, _start);
             }
-            _nextSquare = _pieceMoves.next();
-            _spearThrows = reachableFrom(_nextSquare, _start);
-
         }
     }
 
@@ -468,6 +895,24 @@ class Board {
 
 
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Board)) {
+            return false;
+        }
+        Board other = (Board) obj;
+        return _key == other._key && _turn == other._turn
+            && _white[0] == other._white[0] && _white[1] == other._white[1]
+            && _black[0] == other._black[0] && _black[1] == other._black[1]
+            && _spears[0] == other._spears[0]
+            && _spears[1] == other._spears[1];
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (_key ^ (_key >>> 32));
+    }
+
     @Override
     public String toString() {
         String newstring = "";
@@ -475,9 +920,9 @@ class Board {
             newstring += "   ";
             for (int j = 0; j < SIZE; j += 1) {
                 if (j == SIZE - 1) {
-                    newstring += board2d[j][i];
+                    newstring += get(j, i);
                 } else {
-                    newstring += board2d[j][i] + " ";
+                    newstring += get(j, i) + " ";
                 }
             }
             newstring += "\n";
@@ -492,6 +937,34 @@ class Board {
     private static final Iterator<Square> NO_SQUARES =
             Collections.emptyIterator();
 
+    /**
+     * Squares holding white queens, black queens and spears, as
+     * bitboards (see SquareSet).
+     */
+    private final long[] _white = new long[SquareSet.WORDS],
+        _black = new long[SquareSet.WORDS],
+        _spears = new long[SquareSet.WORDS];
+    /**
+     * Zobrist key of the current position (see key()).
+     */
+    private long _key;
+    /**
+     * The keys of the images of the position whose key is _imagesOf, if
+     * _imagesKnown (see computeImages).
+     */
+    private final long[] _images = new long[Symmetry.COUNT];
+    /**
+     * See _images.
+     */
+    private long _imagesOf;
+    /**
+     * See _images.
+     */
+    private boolean _imagesKnown;
+    /**
+     * Scratch set for computeImages.
+     */
+    private final long[] _pendingSet = new long[SquareSet.WORDS];
     /**
      * Piece whose turn it is (BLACK or WHITE).
      */
@@ -506,9 +979,95 @@ class Board {
      */
     private int _moves;
     /**
-     * Stack to keep track of queen and spear moves.
+     * The undo log: _log[k] is move k of the game (see move), packed,
+     * plus the code (see winnerCode) of _winner just before it, shifted
+     * left by WINNER_SHIFT.  Only the first _moves entries are in use.
+     */
+    private int[] _log = new int[SIZE * SIZE];
+    /**
+     * _keyLog[k] is the key after the queen move of move k (see
+     * moveQueen), so that undoing its spear throw can restore the key
+     * directly.
+     */
+    private long[] _keyLog = new long[SIZE * SIZE];
+    /**
+     * The pending queen move (see moveQueen), packed with spear square
+     * 0, or NO_PENDING.
+     */
+    private int _pending;
+    /**
+     * Value of _pending when no queen move is pending.
+     */
+    private static final int NO_PENDING = -1;
+    /**
+     * Change in square index for one step in each direction (as for
+     * Square.queenMove).
+     */
+    private static final int[] RAY_STEP = {
+        SIZE, SIZE + 1, 1, 1 - SIZE, -SIZE, -SIZE - 1, -1, SIZE - 1
+    };
+    /**
+     * Mask of the from and to squares of a packed move.
+     */
+    private static final int QUEEN_MOVE_MASK = Move.pack(0, 0, 1) - 1;
+    /**
+     * Position of the winner's code in an entry of _log, and mask of the
+     * move below it.
+     */
+    private static final int WINNER_SHIFT = 21,
+        MOVE_MASK = (1 << WINNER_SHIFT) - 1;
+    /**
+     * Zobrist numbers: ZOBRIST[p.ordinal()][k] is XORed into the key
+     * when square k holds Piece p.  The EMPTY row is all zero.  The
+     * seed is fixed so that keys are the same in every run, and so can
+     * be stored in files.
+     */
+    private static final long[][] ZOBRIST =
+        new long[Piece.values().length][SIZE * SIZE];
+    /**
+     * Zobrist number XORed into the key when BLACK is to move.
+     */
+    private static final long BLACK_TO_MOVE;
+    /**
+     * Zobrist numbers: PENDING[k] is XORed into the key when the queen on
+     * square k has moved and has yet to throw its spear.
+     */
+    private static final long[] PENDING = new long[SIZE * SIZE];
+    /**
+     * IMAGES[image(p, k) + t] is the Zobrist number for the Piece with
+     * ordinal p on the image of square k under symmetry t, and
+     * PENDING_IMAGES[image(0, k) + t] the number for a pending queen
+     * there.  The numbers for one square and all symmetries are
+     * adjacent, so that computeImages reads them from one cache line or
+     * two per square.
      */
-    private Stack<Move> _stack = new Stack<>();
+    private static final long[] IMAGES =
+        new long[Piece.values().length * SIZE * SIZE * Symmetry.COUNT],
+        PENDING_IMAGES = new long[SIZE * SIZE * Symmetry.COUNT];
+
+    static {
+        Random random = new Random(0x5eed_a4a2_0115L);
+        for (Piece p : Piece.values()) {
+            for (int k = 0; p != EMPTY && k < SIZE * SIZE; k += 1) {
+                ZOBRIST[p.ordinal()][k] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = random.nextLong();
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            PENDING[k] = random.nextLong();
+        }
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            for (int k = 0; k < SIZE * SIZE; k += 1) {
+                int sq = Symmetry.square(t, k);
+                for (Piece p : Piece.values()) {
+                    IMAGES[image(p.ordinal(), k) + t] =
+                        ZOBRIST[p.ordinal()][sq];
+                }
+                PENDING_IMAGES[image(0, k) + t] = PENDING[sq];
+            }
+        }
+    }
+
     /**
      * Initial white queens on Board.
      */
@@ -0,0 +1,223 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+import static amazons.OpeningBook.*;
+import static amazons.Piece.*;
+
+/** Builds an opening book (see OpeningBook) offline, by searching the
+ *  positions near the start of the game with an AI given far more time
+ *  than it has in play.
+ *
+ *  Starting from the initial position, the builder considers a few
+ *  candidate moves in each position: the move an AI search chooses,
+ *  and the moves after which a static evaluation is best for the side
+ *  to move.  Each candidate's value is that of the position after it,
+ *  found by searching that position in turn, or, above the last ply of
+ *  the book, by expanding it in the same way, so that values come from
+ *  the deepest searches made.  The book records every candidate with
+ *  its value.  Positions reached by more than one order of moves, and
+ *  images of positions already expanded under the symmetries of the
+ *  board, are expanded once.
+ *
+ *  Usage: java amazons.BookBuilder [--plies=N] [--width=N]
+ *         [--time=MILLIS] [--threads=N] FILE
+ *  writes to FILE a book covering the first N plies (default 2), with
+ *  WIDTH candidates per position (default 4), searching each position
+ *  for MILLIS milliseconds (default 10000) with N threads (default one
+ *  per processor).
+ *  @author JaniceNg
+ */
+public class BookBuilder {
+
+    /** Build the book described by ARGS (see the class comment). */
+    public static void main(String... args) {
+        int plies = 2, width = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long millis = 10_000;
+        String name = null;
+        try {
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--plies=")) {
+                    plies = Integer.parseInt(value);
+                } else if (arg.startsWith("--width=")) {
+                    width = Integer.parseInt(value);
+                } else if (arg.startsWith("--time=")) {
+                    millis = Long.parseLong(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--") || name != null) {
+                    throw new IllegalArgumentException(arg);
+                } else {
+                    name = arg;
+                }
+            }
+            if (name == null) {
+                throw new IllegalArgumentException("no book file");
+            }
+            BookBuilder builder =
+                new BookBuilder(new AI().setTimeLimit(millis)
+                                .setThreads(threads), width);
+            builder.build(plies).write(name);
+            System.out.printf("%d entries for %d positions written to %s%n",
+                              builder.size(), builder.positions(), name);
+        } catch (IOException excp) {
+            System.err.printf("Error: could not write book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.err.println("Usage: java amazons.BookBuilder"
+                               + " [--plies=N] [--width=N] [--time=MILLIS]"
+                               + " [--threads=N] FILE");
+            System.exit(1);
+        }
+    }
+
+    /** A builder that searches with AIs created from TEMPLATE and
+     *  considers WIDTH candidate moves per position. */
+    BookBuilder(AI template, int width) {
+        _controller = new Controller(new NullView(), null,
+                                     new NullReporter(), new TextPlayer(),
+                                     template);
+        _ai = (AI) template.create(WHITE, _controller);
+        _width = Math.max(1, width);
+    }
+
+    /** Add entries for the initial position and those reached from it
+     *  in fewer than PLIES moves, and return this. */
+    BookBuilder build(int plies) {
+        Board board = _controller.board();
+        board.init();
+        if (plies > 0) {
+            expand(board, plies);
+        }
+        return this;
+    }
+
+    /** Return the number of entries so far. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the number of positions with entries so far. */
+    int positions() {
+        return _values.size();
+    }
+
+    /** Write my entries to the book file NAME, creating or replacing
+     *  it. */
+    void write(String name) throws IOException {
+        _entries.sort(Comparator.comparingLong((long[] e) -> e[0]));
+        ByteBuffer buffer =
+            ByteBuffer.allocate(HEADER + ENTRY * _entries.size())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(_entries.size());
+        for (long[] entry : _entries) {
+            buffer.putLong(entry[0]).putInt((int) entry[1])
+                .putInt((int) entry[2]);
+        }
+        buffer.flip();
+        try (FileChannel out = FileChannel.open(Paths.get(name), CREATE,
+                                                WRITE, TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /** Add entries for the candidate moves from BOARD, whose game has
+     *  not ended, expanding the positions after them if PLIES > 1, and
+     *  return the best of their values for the side to move (positive
+     *  for WHITE). */
+    private int expand(Board board, int plies) {
+        int symmetry = board.canonicalTransform();
+        long key = board.key(symmetry);
+        Integer known = _values.get(key);
+        if (known != null) {
+            return known;
+        }
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int best = -sense * Search.INFTY;
+        for (int move : candidates(board)) {
+            board.makeMove(move);
+            int value;
+            if (board.winner() != null) {
+                value = board.winner() == WHITE ? Search.WINNING_VALUE
+                    : -Search.WINNING_VALUE;
+            } else if (plies > 1) {
+                value = expand(board, plies - 1);
+            } else {
+                search();
+                value = _ai.lastValue();
+            }
+            board.undo();
+            _entries.add(new long[] {
+                key, Symmetry.move(symmetry, move), value
+            });
+            if (sense * value > sense * best) {
+                best = value;
+            }
+        }
+        _values.put(key, best);
+        return best;
+    }
+
+    /** Return the candidate moves from BOARD: the move chosen by a
+     *  search, followed by those after which my static evaluation is
+     *  best for the side to move, _width in all (or all the legal moves,
+     *  if there are fewer). */
+    private List<Integer> candidates(Board board) {
+        List<Integer> result = new ArrayList<>();
+        result.add(search());
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        long[] scored = new long[n];
+        for (int k = 0; k < n; k += 1) {
+            board.makeMove(moves[k]);
+            scored[k] = ((long) -sense * _evaluator.score(board) << 32)
+                | moves[k];
+            board.undo();
+        }
+        Arrays.sort(scored);
+        for (int k = 0; k < n && result.size() < _width; k += 1) {
+            int move = (int) scored[k];
+            if (!result.contains(move)) {
+                result.add(move);
+            }
+        }
+        return result;
+    }
+
+    /** Search the position on my board with my AI, and return the move
+     *  it chooses, packed.  Its value is then _ai.lastValue(). */
+    private int search() {
+        return Move.mv(_ai.myMove()).packed();
+    }
+
+    /** The controller whose board I search. */
+    private final Controller _controller;
+    /** The AI searching for me. */
+    private final AI _ai;
+    /** Number of candidate moves per position. */
+    private final int _width;
+    /** Static evaluation for choosing candidates. */
+    private final Evaluator _evaluator = new TerritoryEvaluator();
+    /** My entries: each a key, a packed move and a value. */
+    private final List<long[]> _entries = new ArrayList<>();
+    /** Best values of the positions expanded so far, by canonical
+     *  key. */
+    private final HashMap<Long, Integer> _values = new HashMap<>();
+}
@@ -1,5 +1,6 @@
 package amazons;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Random;
 import java.util.Scanner;
@@ -49,8 +50,10 @@ final class Controller {
             String command;
             if (_winner == null) {
                 if (_board.turn() == WHITE) {
+                    _black.ponder();
                     command = _white.myMove();
                 } else {
+                    _white.ponder();
                     command = _black.myMove();
                 }
             } else {
@@ -65,9 +68,64 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
+        stopPondering();
         if (_logFile != null) {
             _logFile.close();
         }
+        if (_record != null) {
+            try {
+                _record.close();
+            } catch (IOException excp) {
+                reportError("Could not finish game record: %s%n",
+                            excp.getMessage());
+            }
+        }
+    }
+
+    /** Add each game I finish from now on to RECORD, unless RECORD is
+     *  null.  The record is closed when play ends. */
+    void setRecord(GameRecordWriter record) {
+        _record = record;
+    }
+
+    /** Play the game from the current position to its end, with WHITE
+     *  and BLACK (players created for this controller) choosing every
+     *  move, without reading commands or updating the view, and return
+     *  the winner.  Adds the nanoseconds each side spends choosing its
+     *  moves to NANOS[0] (WHITE) and NANOS[1] (BLACK).  Moves are
+     *  logged if there is a log file, and the game is recorded if there
+     *  is a game record.  Each player may ponder (see Player.ponder)
+     *  while the other chooses a move. */
+    Piece playGame(Player white, Player black, long[] nanos) {
+        _white = white;
+        _black = black;
+        _winner = _board.winner();
+        try {
+            while (_winner == null) {
+                boolean whiteToMove = _board.turn() == WHITE;
+                (whiteToMove ? black : white).ponder();
+                long start = System.nanoTime();
+                String command = (whiteToMove ? white : black).myMove();
+                nanos[whiteToMove ? 0 : 1] += System.nanoTime() - start;
+                Move move = command == null ? null : Move.mv(command);
+                if (move == null || !_board.isLegal(move)) {
+                    throw new IllegalStateException("bad move from player: "
+                                                    + command);
+                }
+                if (_logFile != null) {
+                    _logFile.println(command);
+                }
+                _board.makeMove(move);
+                _winner = _board.winner();
+            }
+        } finally {
+            stopPondering();
+        }
+        if (_logFile != null) {
+            _logFile.flush();
+        }
+        recordGame();
+        return _winner;
     }
 
     /** Return the current board.  The value returned should not be
@@ -143,6 +201,8 @@ final class Controller {
         new Command("quit$", this::doQuit),
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
+        new Command("perft\\s+(\\d+)$", this::doPerft),
+        new Command("divide\\s+(\\d+)$", this::doDivide),
         new Command("new", this::doNew),
         new Command("auto\\s+black$", this::doautoBlack),
         new Command("auto\\s+white$", this::doautoWhite),
@@ -181,6 +241,7 @@ final class Controller {
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        stopPondering();
         _board.init();
         _winner = null;
     }
@@ -204,37 +265,85 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
+    /** Command "perft N" where N is the first group of MAT: print the
+     *  number of sequences of N moves from the current position, and the
+     *  rate at which they were counted. */
+    private void doPerft(Matcher mat) {
+        int depth = perftDepth(mat);
+        long start = System.nanoTime();
+        long nodes = new Perft().count(_board, depth);
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("perft %d: %d nodes in %.3f s (%.0f nodes/s)%n",
+                          depth, nodes, secs, nodes / secs);
+    }
+
+    /** Command "divide N" where N is the first group of MAT: as for
+     *  "perft N", but also print the count after each legal move. */
+    private void doDivide(Matcher mat) {
+        int depth = perftDepth(mat);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = _board.legalMoves(_board.turn(), moves);
+        long start = System.nanoTime();
+        long[] counts = new Perft().divide(_board, depth);
+        double secs = (System.nanoTime() - start) / 1e9;
+        long nodes = 0;
+        for (int i = 0; i < n; i += 1) {
+            System.out.printf("%s: %d%n", Move.mv(moves[i]), counts[i]);
+            nodes += counts[i];
+        }
+        System.out.printf("divide %d: %d moves, %d nodes in %.3f s "
+                          + "(%.0f nodes/s)%n",
+                          depth, n, nodes, secs, nodes / secs);
+    }
+
+    /** Return the depth given as the first group of MAT for "perft" or
+     *  "divide", which must be positive. */
+    private int perftDepth(Matcher mat) {
+        try {
+            int depth = Integer.parseInt(mat.group(1));
+            if (depth < 1) {
+                throw error("depth must be positive");
+            }
+            return depth;
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
     /** Create manual white for player. */
     private void doManualWhite(Matcher unused) {
+        _white.stopPondering();
         _white = _manualPlayerTemplate.create(WHITE, this);
 
     }
     /** Create manual black for player. */
     private void doManualBlack(Matcher unused) {
+        _black.stopPondering();
         _black = _manualPlayerTemplate.create(BLACK, this);
 
     }
     /** Create auto white for player. */
     private void doautoWhite(Matcher unused) {
+        _white.stopPondering();
         _white = _autoPlayerTemplate.create(WHITE, this);
     }
     /** Create auto black for player. */
     private void doautoBlack(Matcher unused) {
-        _black = _manualPlayerTemplate.create(BLACK, this);
+        _black.stopPondering();
+        _black = _autoPlayerTemplate.create(BLACK, this);
 
     }
 
     /** Do Move Function with M as input . */
     private void doMove(Matcher m) {
-        if (Move.mv(m.group(0)) != null
-                && _board.isLegal(Move.mv(Square.sq(m.group(1)),
-                Square.sq(m.group(2)), Square.sq(m.group(3))))) {
-            _board.makeMove(Move.mv
-                    (Square.sq(m.group(1)), Square.sq(m.group(2)),
-                            Square.sq(m.group(3))));
+        Move move = Move.mv(m.group(0));
+        if (move != null && _board.isLegal(move)) {
+            _board.makeMove(move.packed());
             _winner = _board.winner();
             if (_winner != null) {
-                if (_board.winner() == WHITE) {
+                stopPondering();
+                recordGame();
+                if (_winner == WHITE) {
                     reportNote("White wins.");
                 } else {
                     reportNote("Black wins.");
@@ -245,6 +354,23 @@ final class Controller {
         }
     }
 
+    /** Stop both players' pondering (see Player.ponder). */
+    private void stopPondering() {
+        _white.stopPondering();
+        _black.stopPondering();
+    }
+
+    /** Add the game just finished to my game record, if any. */
+    private void recordGame() {
+        if (_record != null) {
+            try {
+                _record.write(_board);
+            } catch (IOException excp) {
+                throw error("could not record game: %s", excp.getMessage());
+            }
+        }
+    }
+
     /** The board. */
     private Board _board = new Board();
 
@@ -263,6 +389,9 @@ final class Controller {
     /** Log file, or null if absent. */
     private PrintStream _logFile;
 
+    /** Record of finished games, or null if absent. */
+    private GameRecordWriter _record;
+
     /** Input source. */
     private Scanner _input;
 
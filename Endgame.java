@@ -0,0 +1,331 @@
+package amazons;
+
+import java.util.HashMap;
+
+import static amazons.Piece.*;
+
+/** Exact play for the end of a game.  Late in a game, the spears divide
+ *  the board into regions: sets of empty and queen-occupied squares
+ *  connected by king moves.  Once no region holds queens of both
+ *  colors, neither side can affect the other, and the game comes down to
+ *  counting: each side can make a certain number of moves in each of its
+ *  regions, and the side to move wins iff its total is greater than its
+ *  opponent's.
+ *
+ *  The number of moves in a region is found by exhaustive search over
+ *  the region alone, stopping as soon as a line of play fills every
+ *  square (the usual case), and splitting the region again whenever a
+ *  spear divides it.  Results are memoized by the region's contents,
+ *  translated to the lower-left corner of the board, so that a region
+ *  seen again (or the same shape elsewhere) costs one lookup.  Regions
+ *  still holding queens of both colors are left to the ordinary search.
+ *
+ *  Each query has a budget of search nodes; a region too large to count
+ *  within it is reported as UNKNOWN.
+ *  @author JaniceNg
+ */
+final class Endgame {
+
+    /** The result of a query that cannot be answered. */
+    static final int UNKNOWN = -1;
+
+    /** Default node budget per query. */
+    static final int DEFAULT_BUDGET = 200_000;
+
+    /** An Endgame solver with the default node budget. */
+    Endgame() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /** An Endgame solver that searches at most BUDGET nodes per query. */
+    Endgame(int budget) {
+        _budget = budget;
+    }
+
+    /** Return the most moves SIDE could make in BOARD if its opponent
+     *  made none, or UNKNOWN if some region of BOARD holds queens of both
+     *  colors or the count exceeds the node budget. */
+    int moves(Board board, Piece side) {
+        _nodes = 0;
+        return count(board, side);
+    }
+
+    /** Return moves(BOARD, SIDE), counting the nodes searched against
+     *  the budget of the current query without starting a new one. */
+    private int count(Board board, Piece side) {
+        long openLo = ~board.squares(SPEAR, 0),
+            openHi = ~board.squares(SPEAR, 1) & SquareSet.HI_MASK;
+        long sideLo = board.squares(side, 0),
+            sideHi = board.squares(side, 1);
+        long otherLo = board.squares(side.opponent(), 0),
+            otherHi = board.squares(side.opponent(), 1);
+        long emptyLo = board.squares(EMPTY, 0),
+            emptyHi = board.squares(EMPTY, 1);
+        long queensLo = sideLo | otherLo, queensHi = sideHi | otherHi;
+        int total = 0;
+        while ((queensLo | queensHi) != 0) {
+            fill(queensLo != 0 ? Long.lowestOneBit(queensLo) : 0,
+                 queensLo != 0 ? 0 : Long.lowestOneBit(queensHi),
+                 openLo, openHi);
+            long compLo = _fill[0], compHi = _fill[1];
+            queensLo &= ~compLo;
+            queensHi &= ~compHi;
+            boolean mine = ((sideLo & compLo) | (sideHi & compHi)) != 0,
+                theirs = ((otherLo & compLo) | (otherHi & compHi)) != 0;
+            if (mine && theirs) {
+                return UNKNOWN;
+            } else if (mine) {
+                int n = solve(emptyLo & compLo, emptyHi & compHi,
+                              sideLo & compLo, sideHi & compHi);
+                if (n == UNKNOWN) {
+                    return UNKNOWN;
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /** Return Search.WINNING_VALUE if WHITE wins BOARD with best play,
+     *  -Search.WINNING_VALUE if BLACK does, and UNKNOWN if moves cannot
+     *  tell. */
+    int value(Board board) {
+        Piece turn = board.turn();
+        int mine = moves(board, turn), theirs = moves(board, turn.opponent());
+        if (mine == UNKNOWN || theirs == UNKNOWN) {
+            return UNKNOWN;
+        }
+        Piece winner = mine > theirs ? turn : turn.opponent();
+        return winner == WHITE ? Search.WINNING_VALUE : -Search.WINNING_VALUE;
+    }
+
+    /** Return a packed move for the side to move in BOARD that keeps
+     *  the most moves available to it (which is best play once the
+     *  regions are separated), or 0 if moves cannot tell or there is no
+     *  move.  The counts for BOARD and for the positions after each
+     *  move share one node budget, so that the whole query is bounded;
+     *  if it runs out, the result is 0. */
+    int bestMove(Board board) {
+        Piece side = board.turn();
+        _nodes = 0;
+        int count = count(board, side);
+        if (count == UNKNOWN || count == 0) {
+            return 0;
+        }
+        _board.copy(board);
+        int n = _board.legalMoves(side, _moves);
+        for (int i = 0; i < n; i += 1) {
+            _board.makeMove(_moves[i]);
+            int after = count(_board, side);
+            _board.undo();
+            if (after == count - 1) {
+                return _moves[i];
+            } else if (after == UNKNOWN) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the number of regions whose counts I have memoized. */
+    int size() {
+        return _memo.size();
+    }
+
+    /** Return the most moves the queens QLO, QHI can make in the region
+     *  consisting of them and the empty squares ELO, EHI, which must be
+     *  connected, or UNKNOWN if the node budget runs out. */
+    private int solve(long eLo, long eHi, long qLo, long qHi) {
+        int shift = cornerShift(eLo | qLo, eHi | qHi);
+        Key key = new Key(downLo(eLo, eHi, shift), downHi(eLo, eHi, shift),
+                          downLo(qLo, qHi, shift), downHi(qLo, qHi, shift));
+        Integer known = _memo.get(key);
+        if (known != null) {
+            return known;
+        }
+        int result = search(key.emptyLo, key.emptyHi,
+                            key.queensLo, key.queensHi);
+        if (result != UNKNOWN) {
+            _memo.put(key, result);
+        }
+        return result;
+    }
+
+    /** Return the most moves the queens QLO, QHI can make in the
+     *  connected region consisting of them and the empty squares ELO,
+     *  EHI, by trying every move, or UNKNOWN if the node budget runs
+     *  out. */
+    private int search(long eLo, long eHi, long qLo, long qHi) {
+        int bound = SquareSet.size(eLo, eHi);
+        int best = 0;
+        long[] reach = new long[SquareSet.WORDS];
+        for (long queens = qLo, word = 0; word < SquareSet.WORDS;
+             word += 1, queens = qHi) {
+            for (; queens != 0; queens &= queens - 1) {
+                long qbit = Long.lowestOneBit(queens);
+                long fromLo = word == 0 ? qbit : 0,
+                    fromHi = word == 0 ? 0 : qbit;
+                SquareSet.queenReach(fromLo, fromHi, eLo, eHi, reach);
+                long toLo = reach[0], toHi = reach[1];
+                for (long to = toLo, tword = 0; tword < SquareSet.WORDS;
+                     tword += 1, to = toHi) {
+                    for (; to != 0; to &= to - 1) {
+                        long tbit = Long.lowestOneBit(to);
+                        long tLo = tword == 0 ? tbit : 0,
+                            tHi = tword == 0 ? 0 : tbit;
+                        long e1Lo = (eLo & ~tLo) | fromLo,
+                            e1Hi = (eHi & ~tHi) | fromHi;
+                        long q1Lo = (qLo & ~fromLo) | tLo,
+                            q1Hi = (qHi & ~fromHi) | tHi;
+                        SquareSet.queenReach(tLo, tHi, e1Lo, e1Hi, reach);
+                        long spearLo = reach[0], spearHi = reach[1];
+                        for (long s = spearLo, sword = 0;
+                             sword < SquareSet.WORDS;
+                             sword += 1, s = spearHi) {
+                            for (; s != 0; s &= s - 1) {
+                                _nodes += 1;
+                                if (_nodes > _budget) {
+                                    return UNKNOWN;
+                                }
+                                long sbit = Long.lowestOneBit(s);
+                                int rest =
+                                    split(e1Lo & ~(sword == 0 ? sbit : 0),
+                                          e1Hi & ~(sword == 0 ? 0 : sbit),
+                                          q1Lo, q1Hi);
+                                if (rest == UNKNOWN) {
+                                    return UNKNOWN;
+                                }
+                                best = Math.max(best, rest + 1);
+                                if (best == bound) {
+                                    return best;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return the most moves the queens QLO, QHI can make among
+     *  themselves and the empty squares ELO, EHI: the sum of the counts
+     *  of the regions into which those squares fall.  Returns UNKNOWN if
+     *  the node budget runs out. */
+    private int split(long eLo, long eHi, long qLo, long qHi) {
+        long openLo = eLo | qLo, openHi = eHi | qHi;
+        int total = 0;
+        for (long restLo = qLo, restHi = qHi; (restLo | restHi) != 0; ) {
+            fill(Long.lowestOneBit(restLo),
+                 restLo != 0 ? 0 : Long.lowestOneBit(restHi),
+                 openLo, openHi);
+            long compLo = _fill[0], compHi = _fill[1];
+            restLo &= ~compLo;
+            restHi &= ~compHi;
+            int n = solve(eLo & compLo, eHi & compHi,
+                          qLo & compLo, qHi & compHi);
+            if (n == UNKNOWN) {
+                return UNKNOWN;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /** Set _fill to the squares of OPENLO, OPENHI connected by king moves
+     *  within it to the squares SEEDLO, SEEDHI. */
+    private void fill(long seedLo, long seedHi, long openLo, long openHi) {
+        long lo = seedLo, hi = seedHi;
+        while (true) {
+            SquareSet.kingReach(lo, hi, _fill);
+            long nlo = (_fill[0] & openLo) | lo, nhi = (_fill[1] & openHi) | hi;
+            if (nlo == lo && nhi == hi) {
+                break;
+            }
+            lo = nlo;
+            hi = nhi;
+        }
+        _fill[0] = lo;
+        _fill[1] = hi;
+    }
+
+    /** Return the amount by which to reduce the indices of the nonempty
+     *  set LO, HI to move it as far down and left as possible. */
+    private static int cornerShift(long lo, long hi) {
+        int minIndex = lo != 0 ? Long.numberOfTrailingZeros(lo)
+            : 64 + Long.numberOfTrailingZeros(hi);
+        int minCol = Board.SIZE;
+        for (long w = lo; w != 0; w &= w - 1) {
+            minCol = Math.min(minCol,
+                              Long.numberOfTrailingZeros(w) % Board.SIZE);
+        }
+        for (long w = hi; w != 0; w &= w - 1) {
+            minCol = Math.min(minCol,
+                              (64 + Long.numberOfTrailingZeros(w))
+                              % Board.SIZE);
+        }
+        return minIndex / Board.SIZE * Board.SIZE + minCol;
+    }
+
+    /** Return word 0 of the set LO, HI with all indices reduced by N. */
+    private static long downLo(long lo, long hi, int n) {
+        if (n == 0) {
+            return lo;
+        } else if (n < 64) {
+            return (lo >>> n) | (hi << (64 - n));
+        } else {
+            return hi >>> (n - 64);
+        }
+    }
+
+    /** Return word 1 of the set LO, HI with all indices reduced by N. */
+    private static long downHi(long lo, long hi, int n) {
+        return n < 64 ? hi >>> n : 0;
+    }
+
+    /** The contents of a region, moved to the corner of the board. */
+    private static final class Key {
+        /** A Key for the region with empty squares EMPTYLO, EMPTYHI and
+         *  queens QUEENSLO, QUEENSHI. */
+        Key(long emptyLo, long emptyHi, long queensLo, long queensHi) {
+            this.emptyLo = emptyLo;
+            this.emptyHi = emptyHi;
+            this.queensLo = queensLo;
+            this.queensHi = queensHi;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return emptyLo == other.emptyLo && emptyHi == other.emptyHi
+                && queensLo == other.queensLo && queensHi == other.queensHi;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = emptyLo * 31 + emptyHi;
+            h = h * 31 + queensLo;
+            h = h * 31 + queensHi;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /** The empty squares and queens of the region. */
+        private final long emptyLo, emptyHi, queensLo, queensHi;
+    }
+
+    /** Node budget per query. */
+    private final int _budget;
+    /** Nodes searched by the current query. */
+    private int _nodes;
+    /** Memoized move counts of regions. */
+    private final HashMap<Key, Integer> _memo = new HashMap<>();
+    /** Result of fill. */
+    private final long[] _fill = new long[SquareSet.WORDS];
+    /** Scratch board and move buffer for bestMove. */
+    private final Board _board = new Board();
+    /** See _board. */
+    private final int[] _moves = new int[Board.MAX_MOVES];
+}
@@ -0,0 +1,20 @@
+package amazons;
+
+/** A static evaluation function for Amazons positions, used at the
+ *  leaves of an AI's search.
+ *  @author JaniceNg
+ */
+interface Evaluator {
+
+    /** Return a heuristic value for BOARD: positive if WHITE is ahead,
+     *  negative if BLACK is, Search.WINNING_VALUE if BLACK is to move
+     *  and has no moves, and -Search.WINNING_VALUE if WHITE is to move
+     *  and has none. */
+    int score(Board board);
+
+    /** A factory method that returns a new Evaluator of my concrete type
+     *  and configuration.  Evaluators may keep scratch state, so each
+     *  search thread uses its own. */
+    Evaluator create();
+
+}
@@ -0,0 +1,123 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static amazons.GameRecordWriter.*;
+import static amazons.Piece.*;
+
+/** Reads an archive of games written by GameRecordWriter (which
+ *  describes the format).  The file is memory-mapped, and its games are
+ *  found through its index, so that any game may be replayed without
+ *  reading the ones before it.  Archives are limited to 2 GiB.  Reading
+ *  never changes the mapping, so one reader may be shared by several
+ *  threads.  The mapping is released when the reader is garbage
+ *  collected.
+ *  @author JaniceNg
+ */
+final class GameRecordReader {
+
+    /** A reader of the archive file NAME.  Throws IOException if NAME
+     *  cannot be read or is not a complete archive. */
+    GameRecordReader(String name) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(name), READ)) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(name + " is too large");
+            }
+            if (size < HEADER + TRAILER) {
+                throw new IOException(name + " is not a game archive");
+            }
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            _data.order(ByteOrder.LITTLE_ENDIAN);
+            int end = (int) size - TRAILER;
+            if (_data.getInt(0) != MAGIC
+                || _data.getInt(end + Long.BYTES + Integer.BYTES) != MAGIC) {
+                throw new IOException(name + " is not a complete archive");
+            }
+            if (_data.getInt(4) != VERSION) {
+                throw new IOException(name + " has unknown version "
+                                      + _data.getInt(4));
+            }
+            long index = _data.getLong(end);
+            _numGames = _data.getInt(end + 8);
+            if (index < HEADER
+                || index + (long) Long.BYTES * _numGames != end) {
+                throw new IOException(name + " has a bad index");
+            }
+            _index = (int) index;
+        }
+    }
+
+    /** Return the number of games in the archive. */
+    int size() {
+        return _numGames;
+    }
+
+    /** Return the number of moves in game number GAME (counting from
+     *  0). */
+    int numMoves(int game) {
+        return _data.get(offset(game) + 1) & 0xff;
+    }
+
+    /** Return the winner of game number GAME, or null if it was not
+     *  finished. */
+    Piece winner(int game) {
+        switch (_data.get(offset(game))) {
+        case 1:
+            return WHITE;
+        case 2:
+            return BLACK;
+        default:
+            return null;
+        }
+    }
+
+    /** Return move K (counting from 0) of game number GAME, packed (see
+     *  Move.pack). */
+    int move(int game, int k) {
+        if (k < 0 || k >= numMoves(game)) {
+            throw new IndexOutOfBoundsException("no move " + k);
+        }
+        int p = offset(game) + GAME_HEADER + MOVE_BYTES * k;
+        return Move.pack(_data.get(p), _data.get(p + 1), _data.get(p + 2));
+    }
+
+    /** Set BOARD to the position after the first PLY moves of game
+     *  number GAME. */
+    void replay(int game, int ply, Board board) {
+        if (ply < 0 || ply > numMoves(game)) {
+            throw new IndexOutOfBoundsException("no ply " + ply);
+        }
+        board.init();
+        int p = offset(game) + GAME_HEADER;
+        for (int k = 0; k < ply; k += 1, p += MOVE_BYTES) {
+            board.makeMove(Move.pack(_data.get(p), _data.get(p + 1),
+                                     _data.get(p + 2)));
+        }
+    }
+
+    /** Set BOARD to the final position of game number GAME. */
+    void replay(int game, Board board) {
+        replay(game, numMoves(game), board);
+    }
+
+    /** Return the offset in _data of game number GAME. */
+    private int offset(int game) {
+        if (game < 0 || game >= _numGames) {
+            throw new IndexOutOfBoundsException("no game " + game);
+        }
+        return (int) _data.getLong(_index + Long.BYTES * game);
+    }
+
+    /** The contents of the archive. */
+    private final MappedByteBuffer _data;
+    /** Offset of the index in _data. */
+    private final int _index;
+    /** Number of games in the archive. */
+    private final int _numGames;
+}
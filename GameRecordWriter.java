@@ -0,0 +1,135 @@
+package amazons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.*;
+import static amazons.Piece.*;
+
+/** Writes finished games to an archive file in a compact binary format,
+ *  read by GameRecordReader.  Every game starts from the initial
+ *  position, so only its moves are stored.
+ *
+ *  All numbers are little-endian.  The file holds
+ *  <ul>
+ *  <li> a header: MAGIC (4 bytes) and VERSION (4 bytes);
+ *  <li> the games, one after another, each a byte giving the winner
+ *       (0 for none, 1 for WHITE, 2 for BLACK), a byte giving the
+ *       number of moves, and 3 bytes per move, the indices of its from,
+ *       to and spear squares;
+ *  <li> an index: the offset of each game in the file (8 bytes each);
+ *  <li> a trailer: the offset of the index (8 bytes), the number of
+ *       games (4 bytes) and MAGIC again (4 bytes).
+ *  </ul>
+ *  The index and trailer are written by close, so an archive that was
+ *  not closed cannot be read.
+ *
+ *  Games are collected in a buffer that is written out only when full,
+ *  rather than after every game.  The methods are synchronized, so that
+ *  games played on several threads may share one writer.
+ *  @author JaniceNg
+ */
+final class GameRecordWriter implements Closeable {
+
+    /** A writer creating (or replacing) the archive file NAME. */
+    GameRecordWriter(String name) throws IOException {
+        _out = FileChannel.open(Paths.get(name), CREATE, WRITE,
+                                TRUNCATE_EXISTING);
+        _buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /** Add the game played on BOARD, from the initial position to the
+     *  current one, to the archive. */
+    synchronized void write(Board board) throws IOException {
+        if (_out == null) {
+            throw new IOException("archive is closed");
+        }
+        int n = board.numMoves();
+        if (_buffer.remaining() < GAME_HEADER + MOVE_BYTES * n) {
+            flush();
+        }
+        if (_numGames == _offsets.length) {
+            _offsets = Arrays.copyOf(_offsets, 2 * _numGames);
+        }
+        _offsets[_numGames] = _written + _buffer.position();
+        _numGames += 1;
+        Piece winner = board.winner();
+        _buffer.put((byte) (winner == WHITE ? 1 : winner == BLACK ? 2 : 0));
+        _buffer.put((byte) n);
+        for (int k = 0; k < n; k += 1) {
+            int move = board.move(k);
+            _buffer.put((byte) Move.fromIndex(move))
+                .put((byte) Move.toIndex(move))
+                .put((byte) Move.spearIndex(move));
+        }
+    }
+
+    /** Return the number of games written so far. */
+    synchronized int size() {
+        return _numGames;
+    }
+
+    /** Write out any buffered games, then the index and trailer, and
+     *  close the file.  Has no effect if already closed. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_out == null) {
+            return;
+        }
+        try {
+            long index = _written + _buffer.position();
+            for (int g = 0; g < _numGames; g += 1) {
+                if (_buffer.remaining() < Long.BYTES) {
+                    flush();
+                }
+                _buffer.putLong(_offsets[g]);
+            }
+            if (_buffer.remaining() < TRAILER) {
+                flush();
+            }
+            _buffer.putLong(index).putInt(_numGames).putInt(MAGIC);
+            flush();
+        } finally {
+            _out.close();
+            _out = null;
+        }
+    }
+
+    /** Write the contents of my buffer to the file and empty it. */
+    private void flush() throws IOException {
+        _buffer.flip();
+        while (_buffer.hasRemaining()) {
+            _written += _out.write(_buffer);
+        }
+        _buffer.clear();
+    }
+
+    /** Marks the start and end of an archive ("AMZR"). */
+    static final int MAGIC = 0x525a4d41;
+    /** Version of the format written. */
+    static final int VERSION = 1;
+    /** Sizes in bytes of the header, of a game's header, of a move and
+     *  of the trailer. */
+    static final int HEADER = 8, GAME_HEADER = 2, MOVE_BYTES = 3,
+        TRAILER = 16;
+
+    /** Size of my buffer in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The archive file, or null once closed. */
+    private FileChannel _out;
+    /** Data not yet written to _out. */
+    private final ByteBuffer _buffer =
+        ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /** Number of bytes written to _out so far. */
+    private long _written;
+    /** Offsets of the games in the file. */
+    private long[] _offsets = new long[64];
+    /** Number of games written. */
+    private int _numGames;
+}
@@ -0,0 +1,545 @@
+package amazons;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search (MCTS) with
+ *  the UCT selection rule.
+ *
+ *  Amazons has too many moves per position to give every child a
+ *  visit, so the tree uses progressive widening: when a node is
+ *  expanded, a sample of its moves is ranked by a static Evaluator and
+ *  the best few kept as children, and only the first
+ *  1 + sqrt(visits) of those may be selected.  Playouts are short: a
+ *  few random moves followed by a static evaluation, turned into a
+ *  winning probability.
+ *
+ *  Several threads run playouts at once.  Selection and backup take a
+ *  lock on the tree (they are short), while board updates, expansion
+ *  ranking and playouts, which are where the time goes, run in
+ *  parallel.  A thread descending through a node adds a "virtual loss"
+ *  to it, so that other threads tend to explore elsewhere.
+ *
+ *  The tree is stored in parallel primitive arrays indexed by node
+ *  number, not in one object per node.  The children of a node are
+ *  contiguous, best-ranked first.  The tree lasts from one move to the
+ *  next: the part below the position actually reached is kept, and the
+ *  rest discarded.
+ *  @author JaniceNg
+ */
+class MCTSPlayer extends Player {
+
+    /** A new MCTSPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER,
+     *  configured like TEMPLATE. */
+    private MCTSPlayer(Piece piece, Controller controller,
+                       MCTSPlayer template) {
+        this(piece, controller);
+        _timeLimit = template._timeLimit;
+        _playoutLimit = template._playoutLimit;
+        _threads = template._threads;
+        _treeSize = template._treeSize;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller, this);
+    }
+
+    /** Limit my searches, and those of players I create, to MILLIS
+     *  milliseconds per move.  Returns this player. */
+    MCTSPlayer setTimeLimit(long millis) {
+        _timeLimit = millis;
+        return this;
+    }
+
+    /** Limit my searches, and those of players I create, to PLAYOUTS
+     *  playouts per move, or to no number if PLAYOUTS is 0.  Returns
+     *  this player. */
+    MCTSPlayer setPlayouts(int playouts) {
+        _playoutLimit = playouts;
+        return this;
+    }
+
+    /** Have me, and players I create, run playouts on THREADS threads.
+     *  Returns this player. */
+    MCTSPlayer setThreads(int threads) {
+        _threads = Math.max(1, threads);
+        _workers = null;
+        return this;
+    }
+
+    /** Limit my tree, and those of players I create, to NODES nodes.
+     *  Returns this player. */
+    MCTSPlayer setTreeSize(int nodes) {
+        _treeSize = Math.max(2, nodes);
+        _move = _spareMove = null;
+        _size = 0;
+        return this;
+    }
+
+    /** Return the number of playouts in my last search. */
+    int playouts() {
+        return _playouts.get();
+    }
+
+    /** Return the number of playouts that my last search inherited
+     *  from the one before, through the node for its position. */
+    int reused() {
+        return _reused;
+    }
+
+    @Override
+    String myMove() {
+        Move move = findMove();
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return a move for me from the current position, assuming there
+     *  is a move: the most visited child of the root after searching
+     *  until my time or playout limit.  If the position is in the tree
+     *  of my last search, as it is when the moves played since were
+     *  among those it explored, its node becomes the root, so that the
+     *  playouts below it still count.  If the search ends before the
+     *  root is expanded, the move is the first legal one. */
+    private Move findMove() {
+        Board board = board();
+        allocateTree();
+        int node = follow(board);
+        if (node == -1) {
+            _size = 1;
+            _children[ROOT] = UNEXPANDED;
+            _visits[ROOT] = 0;
+            _wins[ROOT] = 0;
+        } else if (node != ROOT) {
+            reroot(node);
+        }
+        _reused = _visits[ROOT];
+        _rootTurn = board.turn();
+        _deadline = System.nanoTime() + _timeLimit * 1_000_000L;
+        _playouts.set(0);
+        Worker[] workers = workers();
+        for (Worker worker : workers) {
+            worker.reset(board, _controller.randInt(Integer.MAX_VALUE));
+        }
+        if (_children[ROOT] > 0 && _children[ROOT] < ROOT_CHILDREN) {
+            Worker worker = workers[0];
+            widen(worker._ranked,
+                  worker.rankMoves(ROOT_SAMPLE, ROOT_CHILDREN));
+        }
+        Future<?>[] helpers = new Future<?>[workers.length - 1];
+        for (int k = 1; k < workers.length; k += 1) {
+            helpers[k - 1] = AI.POOL.submit(workers[k]);
+        }
+        workers[0].run();
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException(excp);
+            }
+        }
+        int best = -1;
+        for (int c = _first[ROOT]; c < _first[ROOT] + _children[ROOT];
+             c += 1) {
+            if (best == -1 || _visits[c] > _visits[best]) {
+                best = c;
+            }
+        }
+        if (best == -1) {
+            int[] moves = new int[Board.MAX_MOVES];
+            board.legalMoves(board.turn(), moves);
+            return Move.mv(moves[0]);
+        }
+        return Move.mv(_move[best]);
+    }
+
+    /** Bring my copy of the root position up to date with BOARD, and
+     *  return the node of my tree for BOARD, found by following the
+     *  moves made since my last search, or -1 if it is not in my
+     *  tree. */
+    private int follow(Board board) {
+        int first = _root.numMoves();
+        int advanced = _root.catchUp(board);
+        int node = _size == 0 || advanced == -1 ? -1 : ROOT;
+        for (int k = first; node != -1 && k < first + advanced; k += 1) {
+            int move = board.move(k), child = -1;
+            for (int c = _first[node]; c < _first[node] + _children[node];
+                 c += 1) {
+                if (_move[c] == move) {
+                    child = c;
+                    break;
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /** Make NODE the root of my tree, keeping the nodes below it and
+     *  discarding the rest.  The nodes kept are copied, in breadth-first
+     *  order, to a spare set of node arrays, which then changes places
+     *  with the current one. */
+    private void reroot(int node) {
+        if (_spareMove == null) {
+            _spareMove = new int[_move.length];
+            _spareFirst = new int[_move.length];
+            _spareChildren = new int[_move.length];
+            _spareVisits = new int[_move.length];
+            _spareWins = new float[_move.length];
+        }
+        int size = 1;
+        copyNode(node, ROOT);
+        for (int k = ROOT; k < size; k += 1) {
+            int old = _spareFirst[k], n = _spareChildren[k];
+            _spareFirst[k] = size;
+            for (int c = 0; c < n; c += 1) {
+                copyNode(_first[old] + c, size + c);
+            }
+            size += Math.max(n, 0);
+        }
+        int[] move = _move, first = _first, children = _children,
+            visits = _visits;
+        float[] wins = _wins;
+        _move = _spareMove;
+        _first = _spareFirst;
+        _children = _spareChildren;
+        _visits = _spareVisits;
+        _wins = _spareWins;
+        _spareMove = move;
+        _spareFirst = first;
+        _spareChildren = children;
+        _spareVisits = visits;
+        _spareWins = wins;
+        _size = size;
+    }
+
+    /** Copy node OLD of my tree to node K of the spare arrays (see
+     *  reroot), recording OLD as its first child for the time being. */
+    private void copyNode(int old, int k) {
+        _spareMove[k] = _move[old];
+        _spareFirst[k] = old;
+        _spareChildren[k] = _children[old];
+        _spareVisits[k] = _visits[old];
+        _spareWins[k] = _wins[old];
+    }
+
+    /** Add the first N moves of MOVES that are not already children of
+     *  the root to its children, after them, until it has ROOT_CHILDREN,
+     *  if there is room in the tree.  A root inherited from an earlier
+     *  search was expanded as an ordinary node, with fewer children than
+     *  a new root gets.  The children move to the end of the tree,
+     *  leaving their old places unused. */
+    private void widen(int[] moves, int n) {
+        int first = _first[ROOT], old = _children[ROOT];
+        if (_size + ROOT_CHILDREN > _move.length) {
+            return;
+        }
+        System.arraycopy(_move, first, _move, _size, old);
+        System.arraycopy(_first, first, _first, _size, old);
+        System.arraycopy(_children, first, _children, _size, old);
+        System.arraycopy(_visits, first, _visits, _size, old);
+        System.arraycopy(_wins, first, _wins, _size, old);
+        int count = old;
+        for (int k = 0; k < n && count < ROOT_CHILDREN; k += 1) {
+            boolean found = false;
+            for (int c = _size; c < _size + old; c += 1) {
+                found |= _move[c] == moves[k];
+            }
+            if (!found) {
+                int c = _size + count;
+                _move[c] = moves[k];
+                _children[c] = UNEXPANDED;
+                _visits[c] = 0;
+                _wins[c] = 0;
+                count += 1;
+            }
+        }
+        _first[ROOT] = _size;
+        _children[ROOT] = count;
+        _size += count;
+    }
+
+    /** Create the node arrays if need be. */
+    private void allocateTree() {
+        if (_move == null) {
+            _move = new int[_treeSize];
+            _first = new int[_treeSize];
+            _children = new int[_treeSize];
+            _visits = new int[_treeSize];
+            _wins = new float[_treeSize];
+        }
+    }
+
+    /** Return my Workers, one per thread, creating them if need be. */
+    private Worker[] workers() {
+        if (_workers == null) {
+            _workers = new Worker[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _workers[k] = new Worker();
+            }
+        }
+        return _workers;
+    }
+
+    /** Starting from the root, follow the UCT rule down to a leaf,
+     *  adding a virtual loss to every node passed, and record the path in
+     *  PATH (PATH[0] being the root).  Return the index in PATH of the
+     *  leaf. */
+    private synchronized int select(int[] path) {
+        int node = ROOT, depth = 0;
+        path[0] = ROOT;
+        while (_children[node] > 0) {
+            int allowed = Math.min(_children[node],
+                                   1 + (int) Math.sqrt(_visits[node]));
+            double logVisits = Math.log(Math.max(1, _visits[node]));
+            int best = _first[node];
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = _first[node]; c < _first[node] + allowed; c += 1) {
+                if (_visits[c] == 0) {
+                    best = c;
+                    break;
+                }
+                double value = _wins[c] / _visits[c]
+                    + EXPLORATION * Math.sqrt(logVisits / _visits[c]);
+                if (value > bestValue) {
+                    best = c;
+                    bestValue = value;
+                }
+            }
+            _visits[best] += VIRTUAL_LOSS;
+            node = best;
+            depth += 1;
+            path[depth] = node;
+        }
+        return depth;
+    }
+
+    /** Unless it has already been done, make the N moves in MOVES the
+     *  children of NODE, in order, if there is room in the tree. */
+    private synchronized void expand(int node, int[] moves, int n) {
+        if (_children[node] != UNEXPANDED || _size + n > _move.length) {
+            return;
+        }
+        for (int k = 0; k < n; k += 1) {
+            int c = _size + k;
+            _move[c] = moves[k];
+            _children[c] = UNEXPANDED;
+            _visits[c] = 0;
+            _wins[c] = 0;
+        }
+        _first[node] = _size;
+        _size += n;
+        _children[node] = n;
+    }
+
+    /** Back up a playout with result WHITEWINS (the chance that WHITE
+     *  wins) along PATH[0 .. DEPTH], removing the virtual losses that
+     *  select added. */
+    private synchronized void backup(int[] path, int depth,
+                                     float whiteWins) {
+        _visits[ROOT] += 1;
+        for (int d = 1; d <= depth; d += 1) {
+            int node = path[d];
+            _visits[node] += 1 - VIRTUAL_LOSS;
+            boolean whiteMoved = (_rootTurn == WHITE) == (d % 2 == 1);
+            _wins[node] += whiteMoved ? whiteWins : 1 - whiteWins;
+        }
+    }
+
+    /** One thread's share of a search: its own board, buffers, random
+     *  numbers and evaluator. */
+    private class Worker implements Runnable {
+
+        /** Prepare to search from BOARD, using random numbers seeded by
+         *  SEED. */
+        void reset(Board board, long seed) {
+            _board.catchUp(board);
+            _random.setSeed(seed);
+        }
+
+        @Override
+        public void run() {
+            while (!finished()) {
+                int depth = select(_path);
+                for (int d = 1; d <= depth; d += 1) {
+                    _board.makeMove(_move[_path[d]]);
+                }
+                int leaf = _path[depth];
+                if (_children[leaf] == UNEXPANDED
+                    && (leaf == ROOT || _visits[leaf] >= EXPAND_VISITS)) {
+                    int n = rankMoves(leaf == ROOT ? ROOT_SAMPLE : SAMPLE,
+                                      leaf == ROOT ? ROOT_CHILDREN
+                                      : CHILDREN);
+                    expand(leaf, _ranked, n);
+                }
+                float result = playout();
+                for (int d = 1; d <= depth; d += 1) {
+                    _board.undo();
+                }
+                backup(_path, depth, result);
+            }
+        }
+
+        /** Return true iff the search should stop, counting one more
+         *  playout if not. */
+        private boolean finished() {
+            if (System.nanoTime() - _deadline > 0 && _playouts.get() > 0) {
+                return true;
+            }
+            int count = _playouts.incrementAndGet();
+            return _playoutLimit > 0 && count > _playoutLimit;
+        }
+
+        /** Rank up to SAMPLE randomly chosen legal moves in my board by
+         *  static evaluation, store the best LIMIT of them, best first,
+         *  in _ranked, and return how many were stored. */
+        private int rankMoves(int sample, int limit) {
+            Piece turn = _board.turn();
+            int sense = turn == WHITE ? 1 : -1;
+            int n = _board.legalMoves(turn, _moves);
+            int m = Math.min(n, sample);
+            for (int k = 0; k < m; k += 1) {
+                int j = k + _random.nextInt(n - k);
+                int move = _moves[j];
+                _moves[j] = _moves[k];
+                _moves[k] = move;
+                _board.makeMove(move);
+                _scores[k] = sense * _evaluator.score(_board);
+                _board.undo();
+            }
+            int kept = Math.min(m, limit);
+            for (int k = 0; k < kept; k += 1) {
+                int best = k;
+                for (int j = k + 1; j < m; j += 1) {
+                    if (_scores[j] > _scores[best]) {
+                        best = j;
+                    }
+                }
+                _ranked[k] = _moves[best];
+                _moves[best] = _moves[k];
+                _scores[best] = _scores[k];
+            }
+            return kept;
+        }
+
+        /** Play up to PLAYOUT_PLIES random moves from my board, evaluate
+         *  the result, restore the board, and return the estimated chance
+         *  that WHITE wins. */
+        private float playout() {
+            int plies;
+            float result = -1;
+            for (plies = 0; plies < PLAYOUT_PLIES; plies += 1) {
+                Piece turn = _board.turn();
+                int n = _board.legalMoves(turn, _moves);
+                if (n == 0) {
+                    result = turn == WHITE ? 0 : 1;
+                    break;
+                }
+                _board.makeMove(_moves[_random.nextInt(n)]);
+            }
+            if (result < 0) {
+                int score = _evaluator.score(_board);
+                result = (float) (1 / (1 + Math.exp(-score / SCORE_SCALE)));
+            }
+            for (; plies > 0; plies -= 1) {
+                _board.undo();
+            }
+            return result;
+        }
+
+        /** My copy of the board. */
+        private final Board _board = new Board();
+        /** My random numbers. */
+        private final Random _random = new Random();
+        /** My evaluation function. */
+        private final Evaluator _evaluator = new TerritoryEvaluator();
+        /** Move buffer. */
+        private final int[] _moves = new int[Board.MAX_MOVES];
+        /** Scores of moves in _moves while ranking. */
+        private final int[] _scores = new int[Board.MAX_MOVES];
+        /** Ranked moves for expansion. */
+        private final int[] _ranked = new int[Board.MAX_MOVES];
+        /** The nodes on the current path from the root. */
+        private final int[] _path = new int[Search.MAX_GAME_MOVES + 1];
+    }
+
+    /** Default time limit per move, in milliseconds. */
+    static final long DEFAULT_TIME_LIMIT = 1000;
+    /** Default maximum number of tree nodes. */
+    static final int DEFAULT_TREE_SIZE = 1 << 18;
+
+    /** Index of the root node. */
+    private static final int ROOT = 0;
+    /** Child count of a node that has not been expanded. */
+    private static final int UNEXPANDED = -1;
+    /** Visits a node needs before it is expanded. */
+    private static final int EXPAND_VISITS = 4;
+    /** Number of moves ranked when expanding the root, and the number
+     *  kept as children. */
+    private static final int ROOT_SAMPLE = Board.MAX_MOVES,
+        ROOT_CHILDREN = 64;
+    /** Number of moves ranked when expanding other nodes, and the number
+     *  kept as children. */
+    private static final int SAMPLE = 48, CHILDREN = 16;
+    /** Number of random moves in a playout before evaluating. */
+    private static final int PLAYOUT_PLIES = 4;
+    /** Evaluator score giving odds of e to 1. */
+    private static final double SCORE_SCALE = 80;
+    /** UCT exploration constant. */
+    private static final double EXPLORATION = 0.7;
+    /** Visits added to a node while a thread is playing out below it. */
+    private static final int VIRTUAL_LOSS = 3;
+
+    /** Time limit per move, in milliseconds. */
+    private long _timeLimit = DEFAULT_TIME_LIMIT;
+    /** Limit on playouts per move, or 0 for none. */
+    private int _playoutLimit;
+    /** Number of threads. */
+    private int _threads = 1;
+    /** Maximum number of nodes. */
+    private int _treeSize = DEFAULT_TREE_SIZE;
+
+    /** The tree.  For node k: _move[k] is the packed move leading to it;
+     *  its children are nodes _first[k] to _first[k] + _children[k] - 1,
+     *  or _children[k] is UNEXPANDED; _visits[k] counts playouts through
+     *  it (plus virtual losses); and _wins[k] totals their results for
+     *  the side that made _move[k]. */
+    private int[] _move, _first, _children, _visits;
+    /** See _move. */
+    private float[] _wins;
+    /** Node arrays to which reroot copies the nodes it keeps, or null
+     *  if not yet created. */
+    private int[] _spareMove, _spareFirst, _spareChildren, _spareVisits;
+    /** See _spareMove. */
+    private float[] _spareWins;
+    /** Number of nodes in use, or 0 if there is no tree yet. */
+    private int _size;
+    /** The position at my root, as of my last search. */
+    private final Board _root = new Board();
+    /** Playouts inherited by my last search (see reused). */
+    private int _reused;
+    /** Side to move at the root. */
+    private Piece _rootTurn;
+    /** Time (as given by System.nanoTime) when the search must stop. */
+    private volatile long _deadline;
+    /** Number of playouts started in the current search. */
+    private final AtomicInteger _playouts = new AtomicInteger();
+    /** My per-thread workers, or null if not yet created. */
+    private Worker[] _workers;
+}
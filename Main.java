@@ -15,14 +15,26 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the options --display,
+     *  --log=FILE, --record=FILE (add each finished game to a binary
+     *  game record; see GameRecordWriter), --mcts (use Monte Carlo tree
+     *  search for automatic players), --ponder (have them think during
+     *  the opponent's turn), --book=FILE (have them take opening moves
+     *  from an opening book; see BookBuilder), --time=MILLIS (their time
+     *  per move) and --threads=N (their number of search threads). */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --record={0,1} --mcts "
+                            + "--ponder --book={0,1} --time={0,1} "
+                            + "--threads={0,1} "
+                            + "--={0,2}", args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--record=FILE] [--mcts]"
+                               + " [--ponder] [--book=FILE]"
+                               + " [--time=MILLIS] [--threads=N]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -83,6 +95,46 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer,
+                           getAutoPlayer(options));
+        if (options.contains("--record")) {
+            try {
+                control.setRecord(
+                    new GameRecordWriter(options.getFirst("--record")));
+            } catch (IOException excp) {
+                throw error("Could not open game record file");
+            }
+        }
+        return control;
+    }
+
+    /** Return the template for automatic players indicated by
+     *  OPTIONS. */
+    private static Player getAutoPlayer(CommandArgs options) {
+        long time;
+        int threads;
+        try {
+            time = options.contains("--time")
+                ? Long.parseLong(options.getFirst("--time"))
+                : AI.DEFAULT_TIME_LIMIT;
+            threads = options.contains("--threads")
+                ? Integer.parseInt(options.getFirst("--threads")) : 1;
+        } catch (NumberFormatException excp) {
+            throw error("Bad number in --time or --threads option");
+        }
+        if (options.contains("--mcts")) {
+            return new MCTSPlayer().setTimeLimit(time).setThreads(threads);
+        }
+        OpeningBook book = null;
+        if (options.contains("--book")) {
+            try {
+                book = new OpeningBook(options.getFirst("--book"));
+            } catch (IOException excp) {
+                throw error("Could not open opening book");
+            }
+        }
+        return new AI().setTimeLimit(time).setThreads(threads)
+            .setPonder(options.contains("--ponder")).setBook(book);
     }
 }
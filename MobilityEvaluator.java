@@ -0,0 +1,23 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** An Evaluator that counts the legal moves of each side.
+ *  @author JaniceNg
+ */
+class MobilityEvaluator implements Evaluator {
+
+    @Override
+    public int score(Board board) {
+        if (!board.hasMove(board.turn())) {
+            return board.turn() == WHITE
+                ? -Search.WINNING_VALUE : Search.WINNING_VALUE;
+        }
+        return board.countMoves(WHITE) - board.countMoves(BLACK);
+    }
+
+    @Override
+    public Evaluator create() {
+        return new MobilityEvaluator();
+    }
+}
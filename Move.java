@@ -1,27 +1,23 @@
 package amazons;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static amazons.Square.sq;
-import static amazons.Square.SQ;
 
 /** A move in the game of Amazons. As for Squares, Moves are immutable
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  The possible moves, those in which the piece move and spear throw
+ *  are both queen moves, are numbered densely from 0 to NUM_MOVES - 1
+ *  (see index).  Moves are created when first needed and kept in an
+ *  array with that numbering, which any number of threads may share.
  *  @author P. N. Hilfinger
  */
 final class Move {
 
-    /** The syntax for a move, using either the forms FROM-TO(SPEAR) or
-     *  FROM TO SPEAR.  Either groups 1-3 or 4-6 in a match from this pattern
-     *  contain FROM, TO, and SPEAR (the other 3 groups are null in each
-     *  case. */
-    static final Pattern MOVE_PATTERN =
-        Pattern.compile(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
-                                      SQ, SQ, SQ, SQ, SQ, SQ));
-
     /** Return the square moved from. */
     Square from() {
         return _from;
@@ -37,58 +33,156 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
-    static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+    /** Return my packed form (see pack). */
+    int packed() {
+        return _packed;
+    }
+
+    /** Return the packed form of the move FROM-TO(SPEAR), where FROM, TO,
+     *  and SPEAR are square indices: FROM occupies bits 0-6, TO bits 7-13,
+     *  and SPEAR bits 14-20.  Packed moves let search code keep moves in
+     *  int arrays rather than allocating objects. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << PACK_BITS) | (spear << (2 * PACK_BITS));
+    }
+
+    /** Return the index of the square moved from in packed move MOVE. */
+    static int fromIndex(int move) {
+        return move & PACK_MASK;
+    }
+
+    /** Return the index of the square moved to in packed move MOVE. */
+    static int toIndex(int move) {
+        return (move >>> PACK_BITS) & PACK_MASK;
+    }
+
+    /** Return the index of the spear's square in packed move MOVE. */
+    static int spearIndex(int move) {
+        return move >>> (2 * PACK_BITS);
+    }
+
+    /** Return the number, from 0 to NUM_MOVES - 1, of the packed move
+     *  MOVE, or -1 if its piece move or spear throw is not a queen
+     *  move. */
+    static int index(int move) {
+        int base = PAIR_BASE[fromIndex(move) * NUM_SQUARES + toIndex(move)],
+            rank = THROW_RANK[toIndex(move) * NUM_SQUARES
+                              + spearIndex(move)];
+        return base < 0 || rank < 0 ? -1 : base + rank;
+    }
+
+    /** Return the unique Move whose packed form is MOVE, or null if its
+     *  piece move or spear throw is not a queen move. */
+    static Move mv(int move) {
+        int index = index(move);
+        if (index < 0) {
+            return null;
+        }
+        Move result = MOVES.get(index);
+        if (result == null) {
+            result = new Move(sq(fromIndex(move)), sq(toIndex(move)),
+                              sq(spearIndex(move)));
+            if (!MOVES.compareAndSet(index, null, result)) {
+                result = MOVES.get(index);
+            }
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return result;
+    }
+
+    /** Return the unique Move FROM-TO(SPEAR), or null if FROM-TO or
+     *  TO-SPEAR is not a queen move. */
+    static Move mv(Square from, Square to, Square spear) {
+        return mv(pack(from.index(), to.index(), spear.index()));
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
-     *  valid syntax in which the piece move and spear throw are proper
-     *  queen moves, and null otherwise. */
+     *  valid syntax (see MoveParser) in which the piece move and spear
+     *  throw are proper queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
-            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
-                return mv(from, to, spear);
-            }
-        }
-        return null;
+        int move = MoveParser.parse(str);
+        return move == MoveParser.NONE ? null : mv(move);
     }
 
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MoveParser.parse(str) != MoveParser.NONE;
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _str = _from + "-" + _to + "(" + _spear + ")";
+        }
+        return str;
     }
 
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
+        _packed = pack(from.index(), to.index(), spear.index());
+    }
+
+    /** Number of bits per square in a packed move. */
+    private static final int PACK_BITS = 7;
+    /** Mask for one square of a packed move. */
+    private static final int PACK_MASK = (1 << PACK_BITS) - 1;
+
+    /** The number of squares on the board. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** THROW_RANK[j * NUM_SQUARES + k] is the position of square k among
+     *  the squares a queen move from square j, in the order of
+     *  Square.ray by direction, or -1 if there is no queen move from j to
+     *  k. */
+    private static final byte[] THROW_RANK =
+        new byte[NUM_SQUARES * NUM_SQUARES];
+
+    /** PAIR_BASE[j * NUM_SQUARES + k] is the number (see index) of the
+     *  first move from square j to square k, or -1 if there is no queen
+     *  move from j to k.  The moves from j to k are numbered
+     *  consecutively, by THROW_RANK of their spear squares. */
+    private static final int[] PAIR_BASE = new int[NUM_SQUARES * NUM_SQUARES];
+
+    /** The number of possible moves. */
+    static final int NUM_MOVES;
+
+    static {
+        Arrays.fill(THROW_RANK, (byte) -1);
+        Arrays.fill(PAIR_BASE, -1);
+        int[] spears = new int[NUM_SQUARES];
+        for (int to = 0; to < NUM_SQUARES; to += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int spear : Square.ray(to, dir)) {
+                    THROW_RANK[to * NUM_SQUARES + spear] = (byte) spears[to];
+                    spears[to] += 1;
+                }
+            }
+        }
+        int n = 0;
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    PAIR_BASE[from * NUM_SQUARES + to] = n;
+                    n += spears[to];
+                }
+            }
+        }
+        NUM_MOVES = n;
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** The Moves created so far, indexed by their numbers. */
+    private static final AtomicReferenceArray<Move> MOVES =
+        new AtomicReferenceArray<>(NUM_MOVES);
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** My packed form. */
+    private final int _packed;
+    /** The printed form of a Move, or null if not yet needed.  Any
+     *  thread may fill it in, since every thread computes the same
+     *  (immutable) string. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
 
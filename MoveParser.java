@@ -0,0 +1,144 @@
+package amazons;
+
+/** Parses the text of squares and moves straight into square indices
+ *  and packed moves (see Move.pack), without regular expressions and
+ *  without allocating anything.  It has no state, so any number of
+ *  threads may use it at once.
+ *
+ *  The syntax accepted is that of Square.SQ for a square: a column
+ *  letter a-j followed by a row number 1-10, in lower case.  A move is
+ *  either FROM-TO(SPEAR) or FROM TO SPEAR, where the squares of the
+ *  second form are separated by one or more whitespace characters.  The
+ *  text parsed may be a CharSequence (such as a String) or a range of
+ *  ASCII bytes, so that moves can be read straight from input buffers.
+ *  @author JaniceNg
+ */
+final class MoveParser {
+
+    /** The value returned for text that is not a square or move. */
+    static final int NONE = -1;
+
+    /** Return the index of the square whose text is TEXT, or NONE if
+     *  TEXT is not a square. */
+    static int parseSquare(CharSequence text) {
+        int square = square(text, null, 0, text.length(), true);
+        return square == NONE ? NONE : square & INDEX_MASK;
+    }
+
+    /** Return the packed form of the move whose text is TEXT, or NONE
+     *  if TEXT is not a move.  The squares of the result need not form
+     *  queen moves. */
+    static int parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /** Return the packed form of the move whose text is characters
+     *  START to END - 1 of TEXT, or NONE if they are not a move. */
+    static int parse(CharSequence text, int start, int end) {
+        return parse(text, null, start, end);
+    }
+
+    /** Return the packed form of the move whose text is bytes START to
+     *  END - 1 of BYTES, or NONE if they are not a move. */
+    static int parse(byte[] bytes, int start, int end) {
+        return parse(null, bytes, start, end);
+    }
+
+    /** Return the packed form of the move in positions START to END - 1
+     *  of TEXT (if non-null) or BYTES, or NONE if there is none. */
+    private static int parse(CharSequence text, byte[] bytes, int start,
+                             int end) {
+        int from = square(text, bytes, start, end, false);
+        if (from == NONE) {
+            return NONE;
+        }
+        int p = start + (from >>> NEXT_SHIFT);
+        boolean dashed = p < end && charAt(text, bytes, p) == '-';
+        p = dashed ? p + 1 : skipSpace(text, bytes, p, end);
+        int to = p == NONE ? NONE : square(text, bytes, p, end, false);
+        if (to == NONE) {
+            return NONE;
+        }
+        p += to >>> NEXT_SHIFT;
+        if (dashed) {
+            p = p < end && charAt(text, bytes, p) == '(' ? p + 1 : NONE;
+        } else {
+            p = skipSpace(text, bytes, p, end);
+        }
+        int spear = p == NONE ? NONE : square(text, bytes, p, end, false);
+        if (spear == NONE) {
+            return NONE;
+        }
+        p += spear >>> NEXT_SHIFT;
+        if (dashed) {
+            if (p == end || charAt(text, bytes, p) != ')') {
+                return NONE;
+            }
+            p += 1;
+        }
+        if (p != end) {
+            return NONE;
+        }
+        return Move.pack(from & INDEX_MASK, to & INDEX_MASK,
+                         spear & INDEX_MASK);
+    }
+
+    /** Return NONE if there is no square at position P of TEXT (if
+     *  non-null) or BYTES, before END.  Otherwise, return its index, plus
+     *  its length in characters shifted left by NEXT_SHIFT.  If WHOLE,
+     *  the square must end at END. */
+    private static int square(CharSequence text, byte[] bytes, int p,
+                              int end, boolean whole) {
+        if (end - p < 2) {
+            return NONE;
+        }
+        int col = charAt(text, bytes, p) - 'a',
+            row = charAt(text, bytes, p + 1) - '1';
+        if (col < 0 || col >= Board.SIZE || row < 0 || row > '9' - '1') {
+            return NONE;
+        }
+        int length = 2;
+        if (row == 0 && p + 2 < end && charAt(text, bytes, p + 2) == '0') {
+            row = Board.SIZE - 1;
+            length = 3;
+        }
+        if (whole && p + length != end) {
+            return NONE;
+        }
+        return (row * Board.SIZE + col) | (length << NEXT_SHIFT);
+    }
+
+    /** Return the position of the first non-whitespace character at or
+     *  after position P of TEXT (if non-null) or BYTES, before END, or
+     *  NONE if there is no whitespace at P. */
+    private static int skipSpace(CharSequence text, byte[] bytes, int p,
+                                 int end) {
+        int p0 = p;
+        while (p < end && isSpace(charAt(text, bytes, p))) {
+            p += 1;
+        }
+        return p == p0 ? NONE : p;
+    }
+
+    /** Return true iff C is a whitespace character, as for \s in a
+     *  regular expression. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b'
+            || c == '\f' || c == '\r';
+    }
+
+    /** Return the character at position P of TEXT, if non-null, and
+     *  otherwise of BYTES. */
+    private static char charAt(CharSequence text, byte[] bytes, int p) {
+        return text != null ? text.charAt(p) : (char) (bytes[p] & 0xff);
+    }
+
+    /** Not used: all methods are static. */
+    private MoveParser() {
+    }
+
+    /** Shift of the length in a result of square. */
+    private static final int NEXT_SHIFT = 8;
+    /** Mask for the square index in a result of square. */
+    private static final int INDEX_MASK = (1 << NEXT_SHIFT) - 1;
+}
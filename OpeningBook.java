@@ -0,0 +1,163 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static amazons.Piece.*;
+
+/** An opening book: moves and values for positions near the start of
+ *  the game, found in advance by deep searches (see BookBuilder) and
+ *  read from a memory-mapped file.  Nothing is loaded onto the heap; a
+ *  lookup is a binary search of the file by the canonical key of the
+ *  position (see Board.canonicalKey), touching a few pages at most.
+ *  One entry thus serves a position and all its images under the
+ *  symmetries of the board.  Reading never changes the mapping, so one
+ *  book may be shared by several threads.  The mapping is released
+ *  when the book is garbage collected.
+ *
+ *  All numbers are little-endian.  The file holds a header, MAGIC (4
+ *  bytes), VERSION (4 bytes) and the number of entries (4 bytes),
+ *  followed by the entries in ascending order of key.  Each entry is
+ *  ENTRY bytes: the canonical key of a position (8 bytes), a packed
+ *  move (4 bytes; see Move.pack) from the image of the position with
+ *  that key (see Board.canonicalTransform), and the value found for
+ *  the position after the move (4 bytes, positive for WHITE).  A
+ *  position may have several entries, one per move, which are
+ *  adjacent.  Books are limited to 2 GiB.
+ *  @author JaniceNg
+ */
+final class OpeningBook {
+
+    /** A book read from the file NAME.  Throws IOException if NAME
+     *  cannot be read or is not a book. */
+    OpeningBook(String name) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(name), READ)) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(name + " is too large");
+            }
+            if (size < HEADER) {
+                throw new IOException(name + " is not an opening book");
+            }
+            _data = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            _data.order(ByteOrder.LITTLE_ENDIAN);
+            if (_data.getInt(0) != MAGIC) {
+                throw new IOException(name + " is not an opening book");
+            }
+            if (_data.getInt(4) != VERSION) {
+                throw new IOException(name + " has unknown version "
+                                      + _data.getInt(4));
+            }
+            _size = _data.getInt(8);
+            if (_size < 0 || HEADER + (long) ENTRY * _size != size) {
+                throw new IOException(name + " has a bad size");
+            }
+        }
+    }
+
+    /** Return the number of entries in the book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of the first entry for positions with
+     *  canonical key KEY, or -1 if there is none. */
+    int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < _size && key(lo) == key ? lo : -1;
+    }
+
+    /** Return the number of the entry giving the best move from BOARD
+     *  for the side to move, or -1 if the book has no legal move for
+     *  BOARD.  Entries whose moves are not legal, which can only come
+     *  from positions that merely share BOARD's key or from a damaged
+     *  file, are ignored. */
+    int bestEntry(Board board) {
+        int symmetry = board.canonicalTransform();
+        long key = board.key(symmetry);
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int best = -1;
+        for (int e = find(key); e >= 0 && e < _size && key(e) == key;
+             e += 1) {
+            if (!onBoard(move(e))) {
+                continue;
+            }
+            Move move =
+                Move.mv(Symmetry.move(Symmetry.inverse(symmetry), move(e)));
+            if (move != null && board.isLegal(move)
+                && (best == -1 || sense * value(e) > sense * value(best))) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /** Return the canonical position key of entry number E. */
+    long key(int e) {
+        return _data.getLong(offset(e));
+    }
+
+    /** Return the packed move of entry number E, from the canonical
+     *  image of its position. */
+    int move(int e) {
+        return _data.getInt(offset(e) + Long.BYTES);
+    }
+
+    /** Return the packed move of entry number E translated to BOARD,
+     *  whose canonical key is that of E, or 0 if E does not hold a
+     *  packed move. */
+    int move(int e, Board board) {
+        int move = move(e);
+        if (!onBoard(move)) {
+            return 0;
+        }
+        return Symmetry.move(Symmetry.inverse(board.canonicalTransform()),
+                             move);
+    }
+
+    /** Return the value (positive for WHITE) of entry number E. */
+    int value(int e) {
+        return _data.getInt(offset(e) + Long.BYTES + Integer.BYTES);
+    }
+
+    /** Return true iff MOVE, as read from an entry, packs three squares
+     *  of the board (see Move.pack), as it does unless the file is
+     *  damaged or not one of mine. */
+    private static boolean onBoard(int move) {
+        int squares = Board.SIZE * Board.SIZE;
+        return Move.fromIndex(move) < squares && Move.toIndex(move) < squares
+            && Move.spearIndex(move) < squares;
+    }
+
+    /** Return the offset in _data of entry number E. */
+    private int offset(int e) {
+        if (e < 0 || e >= _size) {
+            throw new IndexOutOfBoundsException("no entry " + e);
+        }
+        return HEADER + ENTRY * e;
+    }
+
+    /** Marks the start of a book ("AMZB"). */
+    static final int MAGIC = 0x425a4d41;
+    /** Version of the format. */
+    static final int VERSION = 2;
+    /** Sizes in bytes of the header and of an entry. */
+    static final int HEADER = 12, ENTRY = 16;
+
+    /** The contents of the book. */
+    private final MappedByteBuffer _data;
+    /** Number of entries in the book. */
+    private final int _size;
+}
@@ -0,0 +1,122 @@
+package amazons;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Perft ("performance test") counts: the number of move sequences of a
+ *  given length from a position, as generated by Board.legalMoves.
+ *  Known counts make a regression test for move generation, and the
+ *  time taken to find them measures its speed.  The moves from the root
+ *  position are divided among the threads of a fork-join pool, each
+ *  working on its own copy of the board.
+ *  @author JaniceNg
+ */
+final class Perft {
+
+    /** A Perft that uses the common fork-join pool. */
+    Perft() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** A Perft that runs its tasks in POOL. */
+    Perft(ForkJoinPool pool) {
+        _pool = pool;
+    }
+
+    /** Return the number of sequences of DEPTH legal moves starting from
+     *  BOARD (1 if DEPTH is 0).  A sequence ends early, and is not
+     *  counted, if the side to move has no moves. */
+    long count(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long total = 0;
+        for (long n : divide(board, depth)) {
+            total += n;
+        }
+        return total;
+    }
+
+    /** Return the number of sequences of DEPTH > 0 legal moves from BOARD
+     *  that begin with each of the moves legalMoves(board.turn(), MOVES)
+     *  generates, in the same order. */
+    long[] divide(Board board, int depth) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        long[] counts = new long[n];
+        RootTask[] tasks = new RootTask[n];
+        for (int i = 0; i < n; i += 1) {
+            tasks[i] = new RootTask(board, moves[i], depth - 1, counts, i);
+        }
+        _pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return counts;
+    }
+
+    /** Return the number of sequences of DEPTH legal moves from BOARD,
+     *  using BUFFERS[d] to hold the moves at d moves from the end.
+     *  Counts the last level of moves without making them. */
+    static long perft(Board board, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = buffers[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            total += perft(board, depth - 1, buffers);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** The count for one root move. */
+    private static class RootTask extends RecursiveAction {
+
+        /** A task storing in COUNTS[INDEX] the number of sequences of
+         *  DEPTH moves that follow MOVE in BOARD. */
+        RootTask(Board board, int move, int depth, long[] counts,
+                 int index) {
+            _board = new Board(board);
+            _move = move;
+            _depth = depth;
+            _counts = counts;
+            _index = index;
+        }
+
+        @Override
+        protected void compute() {
+            int[][] buffers = new int[_depth + 1][];
+            for (int d = 1; d <= _depth; d += 1) {
+                buffers[d] = new int[Board.MAX_MOVES];
+            }
+            _board.makeMove(_move);
+            _counts[_index] = perft(_board, _depth, buffers);
+        }
+
+        /** My copy of the root position. */
+        private final Board _board;
+        /** The root move I count after. */
+        private final int _move;
+        /** Number of moves to count after _move. */
+        private final int _depth;
+        /** Where to store my count. */
+        private final long[] _counts;
+        /** Index of my count in _counts. */
+        private final int _index;
+        /** Version of my serialized form, which RecursiveAction requires
+         *  but which is never used. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** The pool running my tasks. */
+    private final ForkJoinPool _pool;
+}
@@ -36,6 +36,20 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Called when it is my opponent's turn, before the opponent is
+     *  asked for a move, so that I may think in the meantime (without
+     *  blocking the caller).  May be called more than once for the same
+     *  position.  By default, does nothing. */
+    void ponder() {
+    }
+
+    /** Stop any thinking begun by ponder, and return once it has
+     *  stopped.  Called when the game no longer needs me.  There is no
+     *  need to call it before myMove, which stops pondering itself.  By
+     *  default, does nothing. */
+    void stopPondering() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
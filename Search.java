@@ -0,0 +1,580 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static amazons.Piece.*;
+
+/** The state of one thread's alpha-beta search for an AI: its own copy
+ *  of the board, move buffers and principal-variation tables.  Several
+ *  Searches may share one TranspositionTable and one stop flag, and run
+ *  at once on different threads (see AI).
+ *
+ *  A Search may be split-ply: it then treats the queen move and the
+ *  spear throw of each move as separate plies (see Board.moveQueen and
+ *  Board.throwSpear), so that alpha-beta can cut off a queen move
+ *  after trying a few of its spears, or cut off a position after trying
+ *  a few queen moves, without generating the rest.  Depths are then
+ *  counted in half-plies, and the transposition table tells positions
+ *  with a spear pending from others by their keys.
+ *  @author JaniceNg
+ */
+final class Search {
+
+    /** A position magnitude indicating a win (for white if positive, black
+     *  if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+    /** The most moves a game can last: each move fills one of the
+     *  squares that are empty at the start. */
+    static final int MAX_GAME_MOVES = Board.SIZE * Board.SIZE - 8;
+    /** Largest search depth: that of a search to the end of the longest
+     *  game, in half-plies, as split-ply Searches count depth. */
+    static final int MAX_PLY = 2 * MAX_GAME_MOVES;
+
+    /** A search that scores positions with EVALUATOR, records results
+     *  in TABLE and stops when STOP is set. */
+    Search(Evaluator evaluator, TranspositionTable table,
+           AtomicBoolean stop) {
+        this(evaluator, table, stop, false);
+    }
+
+    /** A search that scores positions with EVALUATOR, records results
+     *  in TABLE, stops when STOP is set, and is split-ply iff SPLIT. */
+    Search(Evaluator evaluator, TranspositionTable table,
+           AtomicBoolean stop, boolean split) {
+        _evaluator = evaluator;
+        _table = table;
+        _stop = stop;
+        _split = split;
+    }
+
+    /** Search a copy of BOARD for a move for the side to move, to depths
+     *  FIRST, FIRST + 1, ... LAST (at most MAX_PLY) in turn (in
+     *  half-plies if I am split-ply, in which case FIRST is at least
+     *  2, so that each iteration finds a whole move), until the stop
+     *  flag is set or the time (as given by System.nanoTime) passes
+     *  DEADLINE, and then set the stop flag.  If MUSTFINISH, the first
+     *  iteration runs to completion regardless, so that there is always
+     *  a move.  Results are available from bestMove, completedDepth and
+     *  value.
+     *
+     *  My copy of BOARD lasts from one search to the next, and is
+     *  brought up to date by making just the moves played since (see
+     *  Board.catchUp).  My killer moves carry over too, each moved up
+     *  by as many plies as the game has advanced, and my history scores
+     *  are halved rather than cleared. */
+    void iterate(Board board, int first, int last, long deadline,
+                 boolean mustFinish) {
+        int advanced = _board.catchUp(board);
+        _deadline = deadline;
+        _mustFinish = mustFinish;
+        _aborted = false;
+        _completedDepth = 0;
+        _bestMove = 0;
+        _pvSize = 0;
+        shiftKillers(advanced < 0 ? _killers.length
+                     : advanced * (_split ? 2 : 1));
+        for (int i = 0; i < _history.length; i += 1) {
+            _history[i] >>= 1;
+        }
+        int sense = board.turn() == WHITE ? 1 : -1;
+        if (_split) {
+            first = Math.max(first, 2);
+        }
+        last = Math.min(last, MAX_PLY);
+        for (int depth = first; depth <= last; depth += 1) {
+            _rootDepth = depth;
+            int value = aspire(depth, sense);
+            if (_aborted) {
+                break;
+            }
+            _bestMove = _lastFoundMove;
+            _completedDepth = depth;
+            _value = sense * value;
+            _pvSize = _pvLength[0];
+            System.arraycopy(_pvTable[0], 0, _pv, 0, _pvSize);
+            if (Math.abs(value) == WINNING_VALUE) {
+                break;
+            }
+        }
+        _stop.set(true);
+    }
+
+    /** Search my board to DEPTH levels for the side SENSE and return the
+     *  value for that side, as findMove.  After the first iteration,
+     *  the search starts with an aspiration window of ASPIRATION around
+     *  the last iteration's value, and is repeated with the window
+     *  widened on the side where the value fell outside it, four times
+     *  as far each time, until the value falls inside. */
+    private int aspire(int depth, int sense) {
+        if (_completedDepth == 0) {
+            return findMove(_board, depth, true, sense, -INFTY, INFTY);
+        }
+        long guess = sense * _value;
+        long below = ASPIRATION, above = ASPIRATION;
+        while (true) {
+            int alpha = (int) Math.max(-INFTY, guess - below),
+                beta = (int) Math.min(INFTY, guess + above);
+            int value = findMove(_board, depth, true, sense, alpha, beta);
+            if (_aborted) {
+                return 0;
+            } else if (value <= alpha && alpha > -INFTY) {
+                below *= 4;
+            } else if (value >= beta && beta < INFTY) {
+                above *= 4;
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** Return the best move (packed) found by the last iteration that
+     *  finished, or 0 if none did. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the depth of the last iteration that finished, or 0. */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the value (positive for WHITE) found by the last iteration
+     *  that finished. */
+    int value() {
+        return _value;
+    }
+
+    /** Return the whole move that TABLE records as best for BOARD,
+     *  translated back from its canonical position (see findMove), or 0
+     *  if there is none.  With split-ply Searches, which record queen
+     *  moves alone for positions with no spear pending, the result need
+     *  not be a legal move. */
+    static int tableMove(TranspositionTable table, Board board) {
+        int symmetry = board.canonicalTransform();
+        long entry = table.probe(board.key(symmetry));
+        if (entry == TranspositionTable.NONE) {
+            return 0;
+        }
+        return Symmetry.move(Symmetry.inverse(symmetry),
+                             TranspositionTable.move(entry));
+    }
+
+    /** Return the number of nodes I have visited. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of beta cutoffs in my searches. */
+    long cutoffs() {
+        return _cutoffs;
+    }
+
+    /** Return the number of beta cutoffs caused by the first move
+     *  searched. */
+    long firstMoveCutoffs() {
+        return _firstMoveCutoffs;
+    }
+
+    /** Find a move from position BOARD for the side SENSE (1 for WHITE,
+     *  -1 for BLACK) and return its value for that side (that is, SENSE
+     *  times its value for WHITE), recording the move found in
+     *  _lastFoundMove iff SAVEMOVE.  Searches up to DEPTH levels as a
+     *  negamax principal-variation search with the window ALPHA, BETA
+     *  (also for SENSE): the first move is searched with the full
+     *  window, and the rest with a null window (ALPHA, ALPHA + 1) that
+     *  only tests whether they are better, re-searching with the full
+     *  window those that are.  The result is exact if strictly inside
+     *  the window, and otherwise a bound on the true value on the same
+     *  side of it.  Searching at level 0 simply returns a static
+     *  estimate of the board value and does not set _lastFoundMove.
+     *  Results are recorded in, and looked up from, the transposition
+     *  table, with scores for WHITE, under the canonical key of BOARD
+     *  (see Board.canonicalKey), so that positions that are images of
+     *  each other under a symmetry of the board share an entry; the
+     *  move in an entry is the image of the best move in the canonical
+     *  position.  If the search is stopped, sets _aborted and returns
+     *  a meaningless value without recording anything.  If I am
+     *  split-ply, each level is a half-ply, and the move recorded is
+     *  always a whole move. */
+    private int findMove(Board board, int depth, boolean saveMove, int sense,
+                         int alpha, int beta) {
+        int ply = _rootDepth - depth;
+        _pvLength[ply] = ply;
+        if (stopped()) {
+            return 0;
+        }
+        if (depth == 0) {
+            return sense * _evaluator.score(board);
+        }
+        int symmetry = board.canonicalTransform();
+        long key = board.key(symmetry);
+        long entry = _table.probe(key);
+        boolean spear = _split && board.spearPending();
+        int ttMove = entry == TranspositionTable.NONE ? 0
+            : image(Symmetry.inverse(symmetry),
+                    TranspositionTable.move(entry), spear);
+        if (!saveMove && entry != TranspositionTable.NONE
+            && TranspositionTable.depth(entry) >= depth) {
+            int score = sense * TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT) {
+                return score;
+            } else if ((bound == TranspositionTable.LOWER) == (sense == 1)) {
+                alpha = Math.max(alpha, score);
+            } else {
+                beta = Math.min(beta, score);
+            }
+            if (beta <= alpha) {
+                return score;
+            }
+        }
+        int[] moves = moveBuffer(depth);
+        Piece side = sense == 1 ? WHITE : BLACK;
+        int numMoves = !_split ? board.legalMoves(side, moves)
+            : spear ? board.spearMoves(moves)
+            : board.queenMoves(side, moves);
+        boolean half = _split && !spear;
+        int childSense = half ? sense : -sense;
+        boolean childSave = saveMove && _split && !spear;
+        int bestWhole = 0;
+        if (numMoves == 0) {
+            return -WINNING_VALUE;
+        }
+        int first = moveToFront(moves, numMoves, 0, pvMove(ply));
+        first = moveToFront(moves, numMoves, first, ttMove);
+        first = moveToFront(moves, numMoves, first, _killers[ply][0]);
+        first = moveToFront(moves, numMoves, first, _killers[ply][1]);
+        int[] scores = scoreBuffer(depth);
+        for (int i = first; i < numMoves; i += 1) {
+            scores[i] = _history[historyIndex(moves[i], half)];
+        }
+        int sorted = Math.min(numMoves, first + SORTED_MOVES);
+        int alpha0 = alpha;
+        int bestmove = moves[0];
+        int bestVal = -INFTY;
+        for (int i = 0; i < numMoves; i += 1) {
+            if (i >= first && i < sorted) {
+                selectBest(moves, scores, i, numMoves);
+            }
+            int move = moves[i];
+            _path[ply] = move;
+            play(board, move);
+            int currVal;
+            if (i == 0) {
+                currVal = findChild(board, depth, childSave, sense,
+                                    childSense, alpha, beta);
+            } else {
+                currVal = findChild(board, depth, childSave, sense,
+                                    childSense, alpha, alpha + 1);
+                if (currVal > alpha && currVal < beta && !_aborted) {
+                    currVal = findChild(board, depth, childSave, sense,
+                                        childSense, alpha, beta);
+                }
+            }
+            unplay(board);
+            if (_aborted) {
+                return 0;
+            }
+            if (currVal > bestVal) {
+                bestmove = move;
+                bestWhole = _lastFoundMove;
+                bestVal = currVal;
+                updatePV(ply, bestmove);
+            }
+            alpha = Math.max(alpha, currVal);
+            if (beta <= alpha) {
+                recordCutoff(ply, depth, move, half, i);
+                break;
+            }
+        }
+        int bound;
+        if (bestVal <= alpha0) {
+            bound = sense == 1 ? TranspositionTable.UPPER
+                : TranspositionTable.LOWER;
+        } else if (bestVal >= beta) {
+            bound = sense == 1 ? TranspositionTable.LOWER
+                : TranspositionTable.UPPER;
+        } else {
+            bound = TranspositionTable.EXACT;
+        }
+        _table.store(key, depth, bound, sense * bestVal,
+                     image(symmetry, bestmove, spear));
+        if (saveMove) {
+            _lastFoundMove = childSave ? bestWhole : bestmove;
+        }
+        return bestVal;
+    }
+
+    /** Search the position on BOARD, just reached by a move of the side
+     *  SENSE at a node with DEPTH levels remaining, in which the side to
+     *  move is CHILDSENSE, with findMove (recording a move iff SAVEMOVE),
+     *  and return its value for SENSE.  ALPHA and BETA are the window
+     *  for SENSE. */
+    private int findChild(Board board, int depth, boolean saveMove,
+                          int sense, int childSense, int alpha, int beta) {
+        if (childSense == sense) {
+            return findMove(board, depth - 1, saveMove, childSense,
+                            alpha, beta);
+        }
+        return -findMove(board, depth - 1, saveMove, childSense,
+                         -beta, -alpha);
+    }
+
+    /** Return the image under symmetry T of MOVE, a move searched in a
+     *  position in which a spear is pending iff SPEAR.  It is a queen
+     *  move alone, packed with spear square 0, if I am split-ply and
+     *  not SPEAR, and otherwise a whole move. */
+    private int image(int t, int move, boolean spear) {
+        return _split && !spear ? Symmetry.queenMove(t, move)
+            : Symmetry.move(t, move);
+    }
+
+    /** Make MOVE on BOARD: a whole move, or if I am split-ply, the half
+     *  move that is due. */
+    private void play(Board board, int move) {
+        if (!_split) {
+            board.makeMove(move);
+        } else if (board.spearPending()) {
+            board.throwSpear(move);
+        } else {
+            board.moveQueen(move);
+        }
+    }
+
+    /** Undo the last move or half move made on BOARD by play. */
+    private void unplay(Board board) {
+        if (!_split) {
+            board.undo();
+        } else if (board.spearPending()) {
+            board.undoQueen();
+        } else {
+            board.undoSpear();
+        }
+    }
+
+    /** If packed move MOVE is among entries START to N - 1 of MOVES, swap
+     *  it into position START, so that it is searched next, and return
+     *  START + 1.  Otherwise, return START. */
+    private static int moveToFront(int[] moves, int n, int start, int move) {
+        for (int i = start; i < n; i += 1) {
+            if (moves[i] == move) {
+                moves[i] = moves[start];
+                moves[start] = move;
+                return start + 1;
+            }
+        }
+        return start;
+    }
+
+    /** Swap the move with the highest score among entries I to N - 1 of
+     *  MOVES (whose scores are the corresponding entries of SCORES) into
+     *  position I.  Calling this for each I in turn is a selection sort
+     *  that stops as soon as the search does. */
+    private static void selectBest(int[] moves, int[] scores, int i, int n) {
+        int best = i;
+        for (int j = i + 1; j < n; j += 1) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        if (best != i) {
+            int move = moves[best], score = scores[best];
+            moves[best] = moves[i];
+            scores[best] = scores[i];
+            moves[i] = move;
+            scores[i] = score;
+        }
+    }
+
+    /** Record that MOVE, the Ith searched at PLY with DEPTH levels
+     *  remaining, and a queen move alone iff HALF, caused a cutoff: make
+     *  it the first killer move at PLY and credit it in the history
+     *  table, more so the deeper the search. */
+    private void recordCutoff(int ply, int depth, int move, boolean half,
+                              int i) {
+        _cutoffs += 1;
+        if (i == 0) {
+            _firstMoveCutoffs += 1;
+        }
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+        int index = historyIndex(move, half);
+        _history[index] = Math.min(_history[index] + depth * depth,
+                                   MAX_HISTORY);
+    }
+
+    /** Make the killer moves of each ply the killers of the ply PLIES
+     *  nearer the root, as when the root has advanced PLIES plies along
+     *  the game, and clear those of the last PLIES plies. */
+    private void shiftKillers(int plies) {
+        for (int p = 0; p < _killers.length; p += 1) {
+            int[] killers = _killers[p];
+            if (p + plies < _killers.length) {
+                killers[0] = _killers[p + plies][0];
+                killers[1] = _killers[p + plies][1];
+            } else {
+                killers[0] = killers[1] = 0;
+            }
+        }
+    }
+
+    /** Return the index in the history table of packed move MOVE: its
+     *  number (see Move.index) if it is a whole move, and if HALF, when
+     *  it is a queen move alone, packed with spear square 0 (see
+     *  Board.queenMoves), a number after all of those.  Queen moves
+     *  alone never share an entry with the whole moves that happen to
+     *  throw to a1. */
+    private static int historyIndex(int move, boolean half) {
+        return half ? Move.NUM_MOVES + (move & (HALF_MOVES - 1))
+            : Move.index(move);
+    }
+
+    /** Return true iff the current search should stop, setting _aborted
+     *  and the shared stop flag if so.  Checks the flag and the clock
+     *  only every few calls, and never during a first iteration that
+     *  must finish. */
+    private boolean stopped() {
+        _nodes += 1;
+        if (!_aborted && (_nodes & CLOCK_CHECK_MASK) == 0
+            && (_completedDepth > 0 || !_mustFinish)) {
+            if (_stop.get() || System.nanoTime() - _deadline > 0) {
+                _aborted = true;
+                _stop.set(true);
+            }
+        }
+        return _aborted;
+    }
+
+    /** Return the move at PLY of the previous iteration's principal
+     *  variation if the moves leading to the current node follow that
+     *  variation, and 0 otherwise. */
+    private int pvMove(int ply) {
+        if (ply >= _pvSize) {
+            return 0;
+        }
+        for (int k = 0; k < ply; k += 1) {
+            if (_path[k] != _pv[k]) {
+                return 0;
+            }
+        }
+        return _pv[ply];
+    }
+
+    /** Record MOVE as the best move found at PLY, so that the principal
+     *  variation from PLY is MOVE followed by the one from PLY + 1. */
+    private void updatePV(int ply, int move) {
+        _pvTable[ply][ply] = move;
+        System.arraycopy(_pvTable[ply + 1], ply + 1, _pvTable[ply], ply + 1,
+                         _pvLength[ply + 1] - ply - 1);
+        _pvLength[ply] = _pvLength[ply + 1];
+    }
+
+    /** Return the move buffer for searches with DEPTH levels remaining,
+     *  creating it on first use.  There is one buffer per ply, so the
+     *  search itself allocates nothing once it has reached its full
+     *  depth. */
+    private int[] moveBuffer(int depth) {
+        if (depth >= _moveBuffers.length) {
+            _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+        }
+        if (_moveBuffers[depth] == null) {
+            _moveBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _moveBuffers[depth];
+    }
+
+    /** Return the move-score buffer for searches with DEPTH levels
+     *  remaining, creating it on first use (see moveBuffer). */
+    private int[] scoreBuffer(int depth) {
+        if (depth >= _scoreBuffers.length) {
+            _scoreBuffers = Arrays.copyOf(_scoreBuffers, depth + 1);
+        }
+        if (_scoreBuffers[depth] == null) {
+            _scoreBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _scoreBuffers[depth];
+    }
+
+    /** Half-width of the initial aspiration window (see aspire).  Values
+     *  from successive iterations often differ by 100 or more, as the
+     *  side that moved last gains; narrower windows fail so often that
+     *  the repeated searches cost more than they save. */
+    private static final int ASPIRATION = 400;
+
+    /** Number of moves at each node placed in history order; the rest
+     *  are searched in the order generated.  Nearly all cutoffs happen
+     *  among the first few moves, so sorting further costs more than it
+     *  saves. */
+    private static final int SORTED_MOVES = 16;
+    /** Limit on history scores. */
+    private static final int MAX_HISTORY = 1 << 24;
+
+    /** The stop flag and clock are checked when the node count is a
+     *  multiple of this mask plus one. */
+    private static final int CLOCK_CHECK_MASK = 63;
+
+    /** True iff I search queen moves and spear throws as separate
+     *  plies. */
+    private final boolean _split;
+    /** The evaluation function used at leaves. */
+    private final Evaluator _evaluator;
+    /** My copy of the board being searched. */
+    private final Board _board = new Board();
+    /** The (shared) transposition table. */
+    private final TranspositionTable _table;
+    /** The (shared) flag telling all searches of a position to stop. */
+    private final AtomicBoolean _stop;
+
+    /** Time (as given by System.nanoTime) when the search must stop. */
+    private long _deadline;
+    /** True iff my first iteration must finish even if stopped. */
+    private boolean _mustFinish;
+    /** True iff the current iteration has been stopped. */
+    private boolean _aborted;
+    /** Number of nodes visited. */
+    private long _nodes;
+    /** Depth of the current iteration of the search. */
+    private int _rootDepth;
+    /** Depth, value and best move of the last iteration that
+     *  finished. */
+    private int _completedDepth, _value, _bestMove;
+    /** The move found by the last call to findMove with SAVEMOVE. */
+    private int _lastFoundMove;
+
+    /** Triangular table of principal variations: _pvTable[p][p] to
+     *  _pvTable[p][_pvLength[p] - 1] is the best line found from the node
+     *  at ply p. */
+    private final int[][] _pvTable = new int[MAX_PLY + 2][MAX_PLY + 2];
+    /** Ends of the lines in _pvTable. */
+    private final int[] _pvLength = new int[MAX_PLY + 2];
+    /** The principal variation of the last finished iteration, of length
+     *  _pvSize. */
+    private final int[] _pv = new int[MAX_PLY + 2];
+    /** Length of _pv. */
+    private int _pvSize;
+    /** _path[p] is the move being searched at ply p. */
+    private final int[] _path = new int[MAX_PLY + 2];
+
+    /** Packed-move buffers for findMove, indexed by remaining depth. */
+    private int[][] _moveBuffers = new int[0][];
+    /** Move-score buffers for findMove, indexed by remaining depth. */
+    private int[][] _scoreBuffers = new int[0][];
+
+    /** _killers[p] holds the two moves that most recently caused cutoffs
+     *  at ply p. */
+    private final int[][] _killers = new int[MAX_PLY + 2][2];
+    /** History scores, indexed by historyIndex: the total squared depth
+     *  of the cutoffs caused by each move, halved at the start of each
+     *  search. */
+    private final int[] _history = new int[Move.NUM_MOVES + HALF_MOVES];
+    /** A bound on the packed forms of queen moves alone. */
+    private static final int HALF_MOVES = Move.pack(0, 0, 1);
+    /** Number of cutoffs, and of cutoffs on the first move searched. */
+    private long _cutoffs, _firstMoveCutoffs;
+}
@@ -45,17 +45,13 @@ final class Square {
 
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        if (this == to) {
-            return false;
-        } else if (to.row() == this.row()) {
-            return true;
-        } else if (to.col() == this.col()) {
-            return true;
-        } else if ((Math.abs(to.row() - this.row()))
-                == Math.abs(to.col() - this.col())) {
-            return true;
-        }
-        return false;
+        return isQueenMove(_index, to._index);
+    }
+
+    /** Return true iff the move between the squares with indices FROM
+     *  and TO is a valid queen move. */
+    static boolean isQueenMove(int from, int to) {
+        return DIRECTIONS[from * NUM_SQUARES + to] >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
@@ -88,41 +84,39 @@ final class Square {
         if (dir < 0 || dir > 7) {
             return null;
         }
-        Square squarenext = nextsquare(dir, steps, steps);
-        return squarenext;
-
+        int[] ray = RAYS[_index][dir];
+        if (steps <= 0 || steps > ray.length) {
+            return null;
+        }
+        return SQUARES[ray[steps - 1]];
     }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        int [] directionlist = new int[2];
-        int col = to.col() - this.col();
-        int row = to.row() - this.row();
-        int coldirection;
-        int rowdirection;
-        if (col == 0) {
-            coldirection = 0;
-        } else {
-            coldirection = col / Math.abs(col);
-        }
-        if (row == 0) {
-            rowdirection = 0;
-        } else {
-            rowdirection = row / Math.abs(row);
-        }
+        return DIRECTIONS[_index * NUM_SQUARES + to._index];
+    }
 
-        directionlist[0] = coldirection;
-        directionlist[1] = rowdirection;
-        for (int i = 0; i < DIR.length; i += 1) {
-            if ((Arrays.equals(DIR[i], directionlist))) {
-                return i;
-            }
-        }
-        return 0;
+    /** Return the indices of the squares in direction DIR (as for
+     *  queenMove) from the square with index INDEX, nearest first.  The
+     *  result is shared and must not be modified. */
+    static int[] ray(int index, int dir) {
+        return RAYS[index][dir];
     }
 
+    /** Return word WORD (see SquareSet) of the set of squares strictly
+     *  between the squares with indices FROM and TO, which is empty
+     *  unless FROM-TO is a queen move. */
+    static long between(int from, int to, int word) {
+        return BETWEEN[2 * (from * NUM_SQUARES + to) + word];
+    }
+
+    /** Return word WORD (see SquareSet) of the set of squares in
+     *  direction DIR from the square with index INDEX (as for ray). */
+    static long rayMask(int index, int dir, int word) {
+        return RAY_MASKS[2 * (index * 8 + dir) + word];
+    }
 
     @Override
     public String toString() {
@@ -160,11 +154,11 @@ final class Square {
      *  standard text format for a square (e.g. a4). POSN must be a
      *  valid square designation. */
     static Square sq(String posn) {
-        assert posn.matches(SQ);
-        String alphabet = "abcdefghij";
-        String col = posn.substring(0, 1);
-        String row = posn.substring(1);
-        return sq(col, row);
+        int index = MoveParser.parseSquare(posn);
+        if (index == MoveParser.NONE) {
+            throw error("not a square: %s", posn);
+        }
+        return sq(index);
     }
 
     /** Return an iterator over all Squares. */
@@ -180,17 +174,66 @@ final class Square {
         _str = String.format((char) (_col + 'a') + "%s", _row + 1);
     }
 
+    /** The number of squares on the board. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
     /** The cache of all created squares, by index. */
-    private static final Square[] SQUARES =
-        new Square[Board.SIZE * Board.SIZE];
+    private static final Square[] SQUARES = new Square[NUM_SQUARES];
 
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[k][d] lists the indices of the squares in direction d from
+     *  square k, nearest first. */
+    private static final int[][][] RAYS = new int[NUM_SQUARES][8][];
+
+    /** DIRECTIONS[j * NUM_SQUARES + k] is the direction of the queen move
+     *  from square j to square k, or -1 if there is no such move. */
+    private static final byte[] DIRECTIONS =
+        new byte[NUM_SQUARES * NUM_SQUARES];
+
+    /** Words 2 * (j * NUM_SQUARES + k) and the one after it hold the set
+     *  of squares strictly between squares j and k (see between). */
+    private static final long[] BETWEEN =
+        new long[2 * NUM_SQUARES * NUM_SQUARES];
+
+    /** Words 2 * (k * 8 + d) and the one after it hold the set of squares
+     *  in direction d from square k (see rayMask). */
+    private static final long[] RAY_MASKS = new long[2 * NUM_SQUARES * 8];
+
     static {
-        for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
+        for (int i = NUM_SQUARES - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        Arrays.fill(DIRECTIONS, (byte) -1);
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            int col0 = from % Board.SIZE, row0 = from / Board.SIZE;
+            for (int dir = 0; dir < 8; dir += 1) {
+                int n;
+                for (n = 0; exists(col0 + DIR[dir][0] * (n + 1),
+                                   row0 + DIR[dir][1] * (n + 1)); n += 1) {
+                    continue;
+                }
+                int[] ray = RAYS[from][dir] = new int[n];
+                long lo, hi;
+                lo = hi = 0;
+                for (int k = 0; k < n; k += 1) {
+                    int to = from + (DIR[dir][1] * Board.SIZE + DIR[dir][0])
+                        * (k + 1);
+                    ray[k] = to;
+                    DIRECTIONS[from * NUM_SQUARES + to] = (byte) dir;
+                    BETWEEN[2 * (from * NUM_SQUARES + to)] = lo;
+                    BETWEEN[2 * (from * NUM_SQUARES + to) + 1] = hi;
+                    if (to < 64) {
+                        lo |= 1L << to;
+                    } else {
+                        hi |= 1L << to;
+                    }
+                }
+                RAY_MASKS[2 * (from * 8 + dir)] = lo;
+                RAY_MASKS[2 * (from * 8 + dir) + 1] = hi;
+            }
+        }
     }
 
     /** My index position. */
@@ -0,0 +1,173 @@
+package amazons;
+
+/** Utilities for sets of Squares represented as bitboards.  A set of
+ *  the Board.SIZE * Board.SIZE squares is held in two longs: bit K of
+ *  word 0 is square K for 0 <= K < 64, and bit K - 64 of word 1 is
+ *  square K for 64 <= K < 100.  Sets are either long[2] arrays
+ *  (indexed by word) or a pair of longs LO, HI.
+ *  @author JaniceNg
+ */
+final class SquareSet {
+
+    /** Number of words in a set. */
+    static final int WORDS = 2;
+
+    /** Mask of the valid bits of word 1. */
+    static final long HI_MASK = (1L << (Board.SIZE * Board.SIZE - 64)) - 1;
+
+    /** Return the word of a set holding the square with index INDEX. */
+    static int word(int index) {
+        return index >>> 6;
+    }
+
+    /** Return the bit within its word of the square with index INDEX. */
+    static long bit(int index) {
+        return 1L << index;
+    }
+
+    /** Return true iff SET contains the square with index INDEX. */
+    static boolean contains(long[] set, int index) {
+        return (set[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /** Return true iff the set LO, HI contains the square with index
+     *  INDEX. */
+    static boolean contains(long lo, long hi, int index) {
+        return ((index < 64 ? lo : hi) & (1L << index)) != 0;
+    }
+
+    /** Add the square with index INDEX to SET. */
+    static void add(long[] set, int index) {
+        set[index >>> 6] |= 1L << index;
+    }
+
+    /** Remove the square with index INDEX from SET. */
+    static void remove(long[] set, int index) {
+        set[index >>> 6] &= ~(1L << index);
+    }
+
+    /** Make SET empty. */
+    static void clear(long[] set) {
+        set[0] = set[1] = 0;
+    }
+
+    /** Return the number of squares in the set LO, HI. */
+    static int size(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /** Return the number of squares in SET. */
+    static int size(long[] set) {
+        return size(set[0], set[1]);
+    }
+
+    /** Return the index of the smallest square in SET that is >= FROM,
+     *  or -1 if there is none. */
+    static int next(long[] set, int from) {
+        if (from < 64) {
+            long w = set[0] & (-1L << from);
+            if (w != 0) {
+                return Long.numberOfTrailingZeros(w);
+            }
+            from = 64;
+        }
+        if (from >= Board.SIZE * Board.SIZE) {
+            return -1;
+        }
+        long w = set[1] & (-1L << from);
+        return w == 0 ? -1 : 64 + Long.numberOfTrailingZeros(w);
+    }
+
+    /** Return word 0 of the set LO, HI shifted one step in direction DIR
+     *  (as for Square.queenMove).  Squares with no neighbor in that
+     *  direction drop out. */
+    static long shiftLo(long lo, long hi, int dir) {
+        lo &= HAS_NEIGHBOR[2 * dir];
+        hi &= HAS_NEIGHBOR[2 * dir + 1];
+        int n = SHIFT[dir];
+        if (n > 0) {
+            return lo << n;
+        } else {
+            return (lo >>> -n) | (hi << (64 + n));
+        }
+    }
+
+    /** Return word 1 of the set LO, HI shifted one step in direction DIR
+     *  (as for shiftLo). */
+    static long shiftHi(long lo, long hi, int dir) {
+        lo &= HAS_NEIGHBOR[2 * dir];
+        hi &= HAS_NEIGHBOR[2 * dir + 1];
+        int n = SHIFT[dir];
+        if (n > 0) {
+            return (hi << n) | (lo >>> (64 - n));
+        } else {
+            return hi >>> -n;
+        }
+    }
+
+    /** Store in RESULT the set of squares one king move from some square
+     *  in LO, HI. */
+    static void kingReach(long lo, long hi, long[] result) {
+        long rlo, rhi;
+        rlo = rhi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            rlo |= shiftLo(lo, hi, dir);
+            rhi |= shiftHi(lo, hi, dir);
+        }
+        result[0] = rlo;
+        result[1] = rhi;
+    }
+
+    /** Store in RESULT the set of squares one unblocked queen move from
+     *  some square in LO, HI, where the squares in EMPTYLO, EMPTYHI are
+     *  the only ones a queen may pass through or land on. */
+    static void queenReach(long lo, long hi, long emptyLo, long emptyHi,
+                           long[] result) {
+        long rlo, rhi;
+        rlo = rhi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            long flo = lo, fhi = hi;
+            while (true) {
+                long nlo = shiftLo(flo, fhi, dir) & emptyLo,
+                    nhi = shiftHi(flo, fhi, dir) & emptyHi;
+                if ((nlo | nhi) == 0) {
+                    break;
+                }
+                rlo |= nlo;
+                rhi |= nhi;
+                flo = nlo;
+                fhi = nhi;
+            }
+        }
+        result[0] = rlo;
+        result[1] = rhi;
+    }
+
+    /** Index change for one step in each direction. */
+    private static final int[] SHIFT = {
+        Board.SIZE, Board.SIZE + 1, 1, 1 - Board.SIZE,
+        -Board.SIZE, -Board.SIZE - 1, -1, Board.SIZE - 1
+    };
+
+    /** Words 2 * d and 2 * d + 1 are the set of squares that have a
+     *  neighbor in direction d. */
+    private static final long[] HAS_NEIGHBOR = new long[2 * 8];
+
+    static {
+        long[] set = new long[WORDS];
+        for (int dir = 0; dir < 8; dir += 1) {
+            clear(set);
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                if (Square.ray(k, dir).length > 0) {
+                    add(set, k);
+                }
+            }
+            HAS_NEIGHBOR[2 * dir] = set[0];
+            HAS_NEIGHBOR[2 * dir + 1] = set[1];
+        }
+    }
+
+    /** Not instantiable. */
+    private SquareSet() {
+    }
+}
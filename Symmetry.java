@@ -0,0 +1,90 @@
+package amazons;
+
+import static amazons.Board.SIZE;
+
+/** The eight symmetries of the board (the dihedral group of the
+ *  square): the rotations by multiples of a right angle, and the
+ *  reflections in the two midlines and the two diagonals.  Each is
+ *  numbered from 0 (IDENTITY) to COUNT - 1, and maps squares, moves and
+ *  positions to their images.
+ *
+ *  Positions that are images of each other under a symmetry have the
+ *  same value and mirrored best moves, so caches keyed by position can
+ *  share one entry among them.  Board.canonicalKey gives the least of
+ *  the keys of a position's images, which all of them share, and
+ *  Board.canonicalTransform the symmetry taking the position to the
+ *  image with that key.  A move found in the canonical image is
+ *  translated back to the position with the inverse symmetry.
+ *
+ *  Symmetry T reflects in the main diagonal (swapping column and row)
+ *  if bit 2 of T is set, then reflects columns (a <-> j) if bit 0 is
+ *  set, and rows (1 <-> 10) if bit 1 is set.
+ *  @author JaniceNg
+ */
+final class Symmetry {
+
+    /** The number of symmetries. */
+    static final int COUNT = 8;
+    /** The symmetry leaving everything in place. */
+    static final int IDENTITY = 0;
+
+    /** Return the index of the image of the square with index SQ under
+     *  symmetry T. */
+    static int square(int t, int sq) {
+        return SQUARES[t][sq];
+    }
+
+    /** Return the packed move (see Move.pack) that is the image of the
+     *  packed whole move MOVE under symmetry T. */
+    static int move(int t, int move) {
+        int[] squares = SQUARES[t];
+        return Move.pack(squares[Move.fromIndex(move)],
+                         squares[Move.toIndex(move)],
+                         squares[Move.spearIndex(move)]);
+    }
+
+    /** Return the image under symmetry T of MOVE, the queen half of a
+     *  move packed with spear square 0 (see Board.queenMoves), packed
+     *  in the same way. */
+    static int queenMove(int t, int move) {
+        int[] squares = SQUARES[t];
+        return Move.pack(squares[Move.fromIndex(move)],
+                         squares[Move.toIndex(move)], 0);
+    }
+
+    /** Return the symmetry that undoes symmetry T. */
+    static int inverse(int t) {
+        return INVERSES[t];
+    }
+
+    /** Not used: all methods are static. */
+    private Symmetry() {
+    }
+
+    /** SQUARES[t][s] is the image of square s under symmetry t. */
+    private static final int[][] SQUARES = new int[COUNT][SIZE * SIZE];
+    /** INVERSES[t] is the inverse of symmetry t. */
+    private static final int[] INVERSES = new int[COUNT];
+
+    static {
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int col = 0; col < SIZE; col += 1) {
+                for (int row = 0; row < SIZE; row += 1) {
+                    int c = (t & 4) == 0 ? col : row,
+                        r = (t & 4) == 0 ? row : col;
+                    c = (t & 1) == 0 ? c : SIZE - 1 - c;
+                    r = (t & 2) == 0 ? r : SIZE - 1 - r;
+                    SQUARES[t][row * SIZE + col] = r * SIZE + c;
+                }
+            }
+        }
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int u = 0; u < COUNT; u += 1) {
+                if (SQUARES[u][SQUARES[t][SIZE]] == SIZE
+                    && SQUARES[u][SQUARES[t][1]] == 1) {
+                    INVERSES[t] = u;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** An Evaluator that estimates who controls the empty squares.  A
+ *  square belongs to the side whose queens can reach it in fewer queen
+ *  moves ("queen distance") and, separately, in fewer king moves ("king
+ *  distance"), which matters more as the board fills up.  Squares at
+ *  equal distance count half for the side to move.  A mobility term
+ *  adds the number of squares each queen can reach in one move.
+ *
+ *  Distances come from multi-source breadth-first flood fills over the
+ *  empty squares, done a whole distance level at a time with bitboard
+ *  shifts (see SquareSet), so no moves are generated.
+ *  @author JaniceNg
+ */
+class TerritoryEvaluator implements Evaluator {
+
+    @Override
+    public int score(Board board) {
+        long emptyLo = board.squares(EMPTY, 0),
+            emptyHi = board.squares(EMPTY, 1),
+            whiteLo = board.squares(WHITE, 0),
+            whiteHi = board.squares(WHITE, 1),
+            blackLo = board.squares(BLACK, 0),
+            blackHi = board.squares(BLACK, 1);
+        int sense = board.turn() == WHITE ? 1 : -1;
+        if (!board.hasMove(board.turn())) {
+            return -sense * Search.WINNING_VALUE;
+        }
+        int queen = territory(whiteLo, whiteHi, blackLo, blackHi,
+                              emptyLo, emptyHi, true, sense);
+        int king = territory(whiteLo, whiteHi, blackLo, blackHi,
+                             emptyLo, emptyHi, false, sense);
+        int mobility = mobility(board, whiteLo, whiteHi)
+            - mobility(board, blackLo, blackHi);
+        return QUEEN_WEIGHT * queen + KING_WEIGHT * king
+            + MOBILITY_WEIGHT * mobility;
+    }
+
+    @Override
+    public Evaluator create() {
+        return new TerritoryEvaluator();
+    }
+
+    /** Return twice the number of empty squares (EMPTYLO, EMPTYHI)
+     *  strictly closer to the white queens (WHITELO, WHITEHI) than to the
+     *  black queens (BLACKLO, BLACKHI), minus twice the number strictly
+     *  closer to black, plus SENSE times the number at equal finite
+     *  distance.  Distance is in queen moves if QUEEN, else in king
+     *  moves. */
+    private int territory(long whiteLo, long whiteHi,
+                          long blackLo, long blackHi,
+                          long emptyLo, long emptyHi,
+                          boolean queen, int sense) {
+        long seenWLo = whiteLo, seenWHi = whiteHi,
+            seenBLo = blackLo, seenBHi = blackHi,
+            frontWLo = whiteLo, frontWHi = whiteHi,
+            frontBLo = blackLo, frontBHi = blackHi;
+        int white, black, ties;
+        white = black = ties = 0;
+        while ((frontWLo | frontWHi | frontBLo | frontBHi) != 0) {
+            expand(frontWLo, frontWHi, emptyLo, emptyHi, queen);
+            frontWLo = _reach[0] & ~seenWLo;
+            frontWHi = _reach[1] & ~seenWHi;
+            expand(frontBLo, frontBHi, emptyLo, emptyHi, queen);
+            frontBLo = _reach[0] & ~seenBLo;
+            frontBHi = _reach[1] & ~seenBHi;
+            white += SquareSet.size(frontWLo & ~seenBLo & ~frontBLo,
+                                    frontWHi & ~seenBHi & ~frontBHi);
+            black += SquareSet.size(frontBLo & ~seenWLo & ~frontWLo,
+                                    frontBHi & ~seenWHi & ~frontWHi);
+            ties += SquareSet.size(frontWLo & frontBLo, frontWHi & frontBHi);
+            seenWLo |= frontWLo;
+            seenWHi |= frontWHi;
+            seenBLo |= frontBLo;
+            seenBHi |= frontBHi;
+        }
+        return 2 * (white - black) + sense * ties;
+    }
+
+    /** Set _reach to the empty squares (EMPTYLO, EMPTYHI) one queen move
+     *  (if QUEEN) or king move (otherwise) from some square in LO, HI. */
+    private void expand(long lo, long hi, long emptyLo, long emptyHi,
+                        boolean queen) {
+        if (queen) {
+            SquareSet.queenReach(lo, hi, emptyLo, emptyHi, _reach);
+        } else {
+            SquareSet.kingReach(lo, hi, _reach);
+            _reach[0] &= emptyLo;
+            _reach[1] &= emptyHi;
+        }
+    }
+
+    /** Return the total over the queens in LO, HI of the number of
+     *  squares of BOARD each can move to. */
+    private int mobility(Board board, long lo, long hi) {
+        int total = 0;
+        for (; lo != 0; lo &= lo - 1) {
+            total += board.reachableCount(Long.numberOfTrailingZeros(lo));
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            total += board.reachableCount(64
+                                          + Long.numberOfTrailingZeros(hi));
+        }
+        return total;
+    }
+
+    /** Weight of each half square of queen-distance territory. */
+    private static final int QUEEN_WEIGHT = 4;
+    /** Weight of each half square of king-distance territory. */
+    private static final int KING_WEIGHT = 2;
+    /** Weight of each square a queen can move to. */
+    private static final int MOBILITY_WEIGHT = 1;
+
+    /** Scratch set for flood fills. */
+    private final long[] _reach = new long[SquareSet.WORDS];
+}
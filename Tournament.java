@@ -0,0 +1,305 @@
+package amazons;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static amazons.Piece.*;
+
+/** Plays many games between two automatic players, several at once,
+ *  with no console input and no display.  Each game has its own
+ *  Controller, Board and pair of players, created from the players'
+ *  templates.  Results, with running totals of wins, game lengths and
+ *  move times, are printed as each game finishes.
+ *
+ *  Games come in pairs.  Both games of a pair start with the same few
+ *  random moves, chosen with Controller.randInt after seeding the
+ *  controller with Controller.setSeed, and the players swap colors
+ *  between them.  A game is therefore reproducible from its seed if the
+ *  players' own choices are: for instance, AIs limited by depth rather
+ *  than time, or MCTS players limited by playouts on one thread.
+ *
+ *  Usage: java amazons.Tournament [--games=N] [--threads=N]
+ *         [--time=MILLIS] [--depth=N] [--playouts=N] [--openings=N]
+ *         [--seed=S] [--record=FILE] [--book=FILE] PLAYER1 PLAYER2
+ *  where each PLAYER is ai (the default AI), split (the AI searching
+ *  split-ply), mobility (the AI with the mobility evaluator), ponder
+ *  (the AI pondering during the opponent's turn) or mcts.
+ *  Defaults are 100 games, one thread per processor, 100 milliseconds
+ *  per move, no depth or playout limit, 2 random opening moves and
+ *  seed 0.  With --record, all finished games are written to FILE (see
+ *  GameRecordWriter).  With --book, the AI players take their opening
+ *  moves from the opening book FILE (see BookBuilder).
+ *  @author JaniceNg
+ */
+public class Tournament {
+
+    /** Run a tournament as directed by ARGS (see the class comment). */
+    public static void main(String... args) {
+        int games = 100, depth = 0, playouts = 0, openings = 2;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long millis = 100, seed = 0;
+        String record = null, book = null;
+        String[] names = new String[2];
+        int numNames = 0;
+        try {
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--games=")) {
+                    games = Integer.parseInt(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--time=")) {
+                    millis = Long.parseLong(value);
+                } else if (arg.startsWith("--depth=")) {
+                    depth = Integer.parseInt(value);
+                } else if (arg.startsWith("--playouts=")) {
+                    playouts = Integer.parseInt(value);
+                } else if (arg.startsWith("--openings=")) {
+                    openings = Integer.parseInt(value);
+                } else if (arg.startsWith("--seed=")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.startsWith("--record=")) {
+                    record = value;
+                } else if (arg.startsWith("--book=")) {
+                    book = value;
+                } else if (arg.startsWith("--") || numNames == 2) {
+                    throw new IllegalArgumentException(arg);
+                } else {
+                    names[numNames] = arg;
+                    numNames += 1;
+                }
+            }
+            if (numNames != 2) {
+                throw new IllegalArgumentException("two players needed");
+            }
+            OpeningBook openingBook = null;
+            if (book != null) {
+                try {
+                    openingBook = new OpeningBook(book);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(
+                        "could not read book: " + excp.getMessage());
+                }
+            }
+            Player[] players = new Player[2];
+            for (int k = 0; k < 2; k += 1) {
+                players[k] = player(names[k], millis, depth, playouts);
+                if (players[k] instanceof AI) {
+                    ((AI) players[k]).setBook(openingBook);
+                }
+            }
+            Tournament tournament =
+                new Tournament(names, players, openings);
+            if (record == null) {
+                tournament.run(games, threads, seed, System.out);
+            } else {
+                try (GameRecordWriter writer = new GameRecordWriter(record)) {
+                    tournament.setRecord(writer)
+                        .run(games, threads, seed, System.out);
+                }
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: could not record games: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.err.println("Usage: java amazons.Tournament [--games=N]"
+                               + " [--threads=N] [--time=MILLIS]"
+                               + " [--depth=N] [--playouts=N]"
+                               + " [--openings=N] [--seed=S]"
+                               + " [--record=FILE] [--book=FILE]"
+                               + " PLAYER1 PLAYER2");
+            System.exit(1);
+        }
+    }
+
+    /** Return a template for the automatic player called NAME (see the
+     *  class comment), taking MILLIS milliseconds per move and limited to
+     *  DEPTH plies (if an AI) or PLAYOUTS playouts (if MCTS), where 0
+     *  means no limit. */
+    static Player player(String name, long millis, int depth,
+                         int playouts) {
+        if (name.equals("mcts")) {
+            return new MCTSPlayer().setTimeLimit(millis)
+                .setPlayouts(playouts);
+        }
+        AI ai = new AI().setTimeLimit(millis);
+        if (depth > 0) {
+            ai.setDepthLimit(depth);
+        }
+        switch (name) {
+        case "ai":
+            return ai;
+        case "split":
+            return ai.setSplitPly(true);
+        case "ponder":
+            return ai.setPonder(true);
+        case "mobility":
+            return ai.setEvaluator(new MobilityEvaluator());
+        default:
+            throw new IllegalArgumentException("unknown player: " + name);
+        }
+    }
+
+    /** A tournament between players created from the templates
+     *  PLAYERS[0] and PLAYERS[1], called NAMES[0] and NAMES[1], with
+     *  OPENINGS random moves at the start of each game. */
+    Tournament(String[] names, Player[] players, int openings) {
+        _names = names.clone();
+        _players = players.clone();
+        _openings = openings;
+    }
+
+    /** Add each game finished from now on to RECORD, unless RECORD is
+     *  null, and return this. */
+    Tournament setRecord(GameRecordWriter record) {
+        _record = record;
+        return this;
+    }
+
+    /** Play GAMES games using THREADS threads, game G with seed
+     *  SEED + G / 2, printing results on OUT as they come, and return
+     *  the number of games won by each player. */
+    int[] run(int games, int threads, long seed, PrintStream out) {
+        _out = out;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int g = 0; g < games; g += 1) {
+            int game = g;
+            pool.execute(() -> play(game, seed + game / 2));
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException excp) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return _wins.clone();
+    }
+
+    /** Play game number GAME, seeded with SEED, and record its result.
+     *  Player 0 is WHITE in even-numbered games. */
+    private void play(int game, long seed) {
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), _players[0]);
+        controller.setSeed(seed);
+        controller.setRecord(_record);
+        Board board = controller.board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < _openings && board.winner() == null; k += 1) {
+            int n = board.legalMoves(board.turn(), moves);
+            board.makeMove(moves[controller.randInt(n)]);
+        }
+        int white = game % 2;
+        Player whitePlayer = _players[white].create(WHITE, controller),
+            blackPlayer = _players[1 - white].create(BLACK, controller);
+        long[] nanos = new long[2];
+        try {
+            Piece winner = controller.playGame(whitePlayer, blackPlayer,
+                                               nanos);
+            record(game, seed, white, winner == WHITE ? white : 1 - white,
+                   board, nanos);
+        } catch (RuntimeException excp) {
+            synchronized (this) {
+                _errors += 1;
+                _out.printf("game %d (seed %d): error: %s%n", game, seed,
+                            excp);
+            }
+        }
+    }
+
+    /** Record and print the result of game number GAME, with seed SEED,
+     *  in which player WHITE played WHITE, player WINNER won, BOARD is
+     *  the final position and NANOS[0] and NANOS[1] are the times WHITE
+     *  and BLACK spent on their moves. */
+    private synchronized void record(int game, long seed, int white,
+                                     int winner, Board board,
+                                     long[] nanos) {
+        int played = board.numMoves() - _openings;
+        int whiteMoves = countMoves(_openings, board.numMoves(), 0);
+        int[] moves = new int[2];
+        moves[white] = whiteMoves;
+        moves[1 - white] = played - whiteMoves;
+        _wins[winner] += 1;
+        _games += 1;
+        _totalLength += board.numMoves();
+        for (int k = 0; k < 2; k += 1) {
+            long n = nanos[k == white ? 0 : 1];
+            _moveNanos[k] += n;
+            _moves[k] += moves[k];
+            if (moves[k] > 0) {
+                _maxMoveNanos[k] = Math.max(_maxMoveNanos[k],
+                                            n / moves[k]);
+            }
+        }
+        double score = (double) _wins[0] / _games;
+        _out.printf("game %d (seed %d): %s (%s) beat %s in %d moves | "
+                    + "%s %d - %d %s (%.1f%%, Elo %+.0f) | "
+                    + "avg %.1f moves | ms/move %s %.1f %s %.1f "
+                    + "(worst game %.1f, %.1f)%n",
+                    game, seed, _names[winner],
+                    winner == white ? "white" : "black", _names[1 - winner],
+                    board.numMoves(), _names[0], _wins[0], _wins[1],
+                    _names[1], 100 * score, elo(score),
+                    (double) _totalLength / _games,
+                    _names[0], millisPerMove(0), _names[1],
+                    millisPerMove(1), _maxMoveNanos[0] / 1e6,
+                    _maxMoveNanos[1] / 1e6);
+        _out.flush();
+    }
+
+    /** Return the number of moves numbered FIRST to LAST - 1 (counting
+     *  from 0) made by the side moving at move PARITY (0 for WHITE). */
+    private static int countMoves(int first, int last, int parity) {
+        int n = 0;
+        for (int k = first; k < last; k += 1) {
+            if (k % 2 == parity) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the average milliseconds per move of player K so far. */
+    private double millisPerMove(int k) {
+        return _moves[k] == 0 ? 0 : _moveNanos[k] / 1e6 / _moves[k];
+    }
+
+    /** Return the Elo rating difference implied by scoring SCORE (a
+     *  fraction of the games), clamped to +/-999. */
+    private static double elo(double score) {
+        if (score <= 0 || score >= 1) {
+            return score <= 0 ? -999 : 999;
+        }
+        return Math.max(-999, Math.min(999,
+                                       -400 * Math.log10(1 / score - 1)));
+    }
+
+    /** Names of the two players. */
+    private final String[] _names;
+    /** Templates of the two players. */
+    private final Player[] _players;
+    /** Number of random moves at the start of each game. */
+    private final int _openings;
+    /** Where results are printed. */
+    private PrintStream _out;
+    /** Record of finished games, or null. */
+    private GameRecordWriter _record;
+
+    /** Games won by each player. */
+    private final int[] _wins = new int[2];
+    /** Games finished, and games abandoned after an error. */
+    private int _games, _errors;
+    /** Total moves in all finished games. */
+    private long _totalLength;
+    /** Moves made and time taken (in nanoseconds) by each player. */
+    private final long[] _moves = new long[2], _moveNanos = new long[2];
+    /** Greatest average time per move (in nanoseconds) of each player in
+     *  any one game. */
+    private final long[] _maxMoveNanos = new long[2];
+}
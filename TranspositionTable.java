@@ -0,0 +1,206 @@
+package amazons;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size table of search results, indexed by Zobrist key (see
+ *  Board.key), that any number of threads may read and write at once
+ *  without locking.
+ *
+ *  Each entry is two longs: the key XORed with the entry's data, and
+ *  the data itself, which packs the best move (21 bits, see Move.pack),
+ *  the search depth (8 bits), the bound type (2 bits) and the score (32
+ *  bits).  A reader accepts an entry only if XORing its two halves gives
+ *  back the key it is looking for, so an entry torn by a concurrent
+ *  write reads as a miss rather than as bad data.  The low
+ *  GENERATION_BITS bits of the first long hold instead the generation
+ *  of the search that stored the entry (see newSearch); the same bits
+ *  of the key select the bucket, so nothing is lost by not checking
+ *  them.
+ *
+ *  Entries come in buckets of two.  The first slot of a bucket is
+ *  depth-preferred: it is replaced only by results of at least the same
+ *  depth, for the same position, or from an earlier generation.  The
+ *  last condition keeps deep results for positions that can no longer
+ *  arise from holding the slot when a table is kept from move to move.
+ *  Everything else goes to the second slot, which is always replaced.
+ *  @author JaniceNg
+ */
+final class TranspositionTable {
+
+    /** Bound type of a score that is exact. */
+    static final int EXACT = 1;
+    /** Bound type of a score that is a lower bound on the true value. */
+    static final int LOWER = 2;
+    /** Bound type of a score that is an upper bound on the true value. */
+    static final int UPPER = 3;
+
+    /** The value returned by probe when there is no entry. */
+    static final long NONE = 0;
+
+    /** A table using at most BYTES bytes of memory, and at least
+     *  MIN_BUCKETS buckets. */
+    TranspositionTable(long bytes) {
+        long buckets =
+            Long.highestOneBit(Math.max(MIN_BUCKETS, bytes / BUCKET_BYTES));
+        buckets = Math.min(buckets, MAX_BUCKETS);
+        _mask = (int) buckets - 1;
+        _table = new AtomicLongArray((int) buckets * BUCKET_LONGS);
+    }
+
+    /** Return the number of entries I can hold. */
+    int capacity() {
+        return (_mask + 1) * 2;
+    }
+
+    /** Return the data stored for the position with key KEY, or NONE if
+     *  there is none.  Unpack it with move, depth, bound and score. */
+    long probe(long key) {
+        int i = (int) key & _mask;
+        for (int slot = i * BUCKET_LONGS; slot < (i + 1) * BUCKET_LONGS;
+             slot += 2) {
+            long data = _table.get(slot + 1);
+            if (data != NONE && matches(_table.get(slot), data, key)) {
+                _hits.increment();
+                return data;
+            }
+        }
+        _misses.increment();
+        return NONE;
+    }
+
+    /** Record that the position with key KEY, searched to DEPTH, has a
+     *  score SCORE of bound type BOUND (EXACT, LOWER or UPPER), and best
+     *  move MOVE (packed, or 0 if unknown). */
+    void store(long key, int depth, int bound, int score, int move) {
+        long data = (long) move | ((long) depth << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT) | USED
+            | ((long) score << SCORE_SHIFT);
+        int generation = _generation;
+        int slot = ((int) key & _mask) * BUCKET_LONGS;
+        long check = _table.get(slot), old = _table.get(slot + 1);
+        boolean same = old != NONE && matches(check, old, key);
+        if (!same && old != NONE && depth(old) > depth
+            && (check & GENERATION_MASK) == generation) {
+            slot += 2;
+            old = _table.get(slot + 1);
+            same = old != NONE && matches(_table.get(slot), old, key);
+        }
+        if (old != NONE && !same) {
+            _collisions.increment();
+        }
+        _table.lazySet(slot, (key ^ data) & ~GENERATION_MASK | generation);
+        _table.lazySet(slot + 1, data);
+        _stores.increment();
+    }
+
+    /** Start a new generation of entries, for a new search from the
+     *  root.  Entries stored before are then replaced regardless of
+     *  their depth.  Generations wrap around after 1 << GENERATION_BITS
+     *  searches, so an entry that survives that many looks current
+     *  again.  Call this only while no thread is storing. */
+    void newSearch() {
+        _generation = (_generation + 1) & GENERATION_MASK;
+    }
+
+    /** Return true iff CHECK and DATA, the two longs of an entry, hold
+     *  an entry for the position with key KEY. */
+    private static boolean matches(long check, long data, long key) {
+        return ((check ^ data ^ key) & ~GENERATION_MASK) == 0;
+    }
+
+    /** Remove all entries and reset the counters. */
+    void clear() {
+        for (int i = 0; i < _table.length(); i += 1) {
+            _table.lazySet(i, 0);
+        }
+        _hits.reset();
+        _misses.reset();
+        _stores.reset();
+        _collisions.reset();
+    }
+
+    /** Return the packed best move of entry DATA, or 0 if it has none. */
+    static int move(long data) {
+        return (int) data & MOVE_MASK;
+    }
+
+    /** Return the search depth of entry DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the bound type of entry DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score of entry DATA. */
+    static int score(long data) {
+        return (int) (data >>> SCORE_SHIFT);
+    }
+
+    /** Return the number of probes that found an entry. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that found nothing. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of entries stored. */
+    long stores() {
+        return _stores.sum();
+    }
+
+    /** Return the number of stores that overwrote an entry for a
+     *  different position. */
+    long collisions() {
+        return _collisions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d hits=%d misses=%d stores=%d "
+                             + "collisions=%d", capacity(), hits(),
+                             misses(), stores(), collisions());
+    }
+
+    /** Longs per bucket: two entries of two longs each. */
+    private static final int BUCKET_LONGS = 4;
+    /** Bytes per bucket. */
+    private static final int BUCKET_BYTES = BUCKET_LONGS * Long.BYTES;
+    /** Number of low bits of an entry's first long holding its
+     *  generation. */
+    private static final int GENERATION_BITS = 4;
+    /** Mask selecting the generation bits. */
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+    /** Smallest number of buckets: enough that the generation bits of a
+     *  key are implied by its bucket. */
+    private static final long MIN_BUCKETS = 1 << GENERATION_BITS;
+    /** Largest number of buckets (so that indices fit in an int). */
+    private static final long MAX_BUCKETS = 1 << 28;
+
+    /** Layout of an entry's data. */
+    private static final int
+        MOVE_MASK = (1 << 21) - 1,
+        DEPTH_SHIFT = 21, DEPTH_MASK = 0xff,
+        BOUND_SHIFT = 29, BOUND_MASK = 3,
+        SCORE_SHIFT = 32;
+    /** A bit set in all stored data, so that no entry's data is NONE. */
+    private static final long USED = 1L << 31;
+
+    /** Mask giving the bucket for a key. */
+    private final int _mask;
+    /** The entries. */
+    private final AtomicLongArray _table;
+    /** The generation of entries now stored. */
+    private volatile int _generation;
+    /** Statistics. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder(),
+        _stores = new LongAdder(),
+        _collisions = new LongAdder();
+}
@@ -7,10 +7,19 @@ import static amazons.Piece.WHITE;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** The suite of all JUnit tests for the enigma package.
  *  @author JaniceNg
@@ -55,6 +64,31 @@ public class UnitTest {
         assertTrue(Square.sq(7, 9).isQueenMove(Square.sq(0, 2)));
     }
 
+    /**
+     * Tests directions, queen moves and unblocked-move lookups.
+     */
+    @Test
+    public void testDirectionsAndBlocking() {
+        assertEquals(0, Square.sq(3, 0).direction(Square.sq(3, 4)));
+        assertEquals(1, Square.sq(1, 1).direction(Square.sq(9, 9)));
+        assertEquals(5, Square.sq(9, 9).direction(Square.sq(1, 1)));
+        assertEquals(7, Square.sq(7, 2).direction(Square.sq(0, 9)));
+        assertEquals(Square.sq(3, 4), Square.sq(3, 0).queenMove(0, 4));
+        assertNull(Square.sq(3, 0).queenMove(4, 1));
+        assertNull(Square.sq(0, 0).queenMove(1, 10));
+        Board b = new Board();
+        assertTrue(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 5),
+                                     null));
+        assertFalse(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 7),
+                                      null));
+        assertFalse(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 6),
+                                      null));
+        assertTrue(b.isUnblockedMove(Square.sq(0, 3), Square.sq(0, 6),
+                                     Square.sq(0, 6)));
+        assertTrue(b.isUnblockedMove(Square.sq(3, 0), Square.sq(9, 0),
+                                     Square.sq(6, 0)));
+    }
+
     /**
      * Tests toString for initial board state and a smiling board state. :)
      */
@@ -164,7 +198,8 @@ public class UnitTest {
     @Test
     public void testReachableIterator() {
         Board testboard = new Board();
-        Iterator reachableFrom = testboard.reachableFrom(Square.sq(0, 3), null);
+        Iterator<Square> reachableFrom =
+            testboard.reachableFrom(Square.sq(0, 3), null);
         assertEquals(Square.sq(0, 4), reachableFrom.next());
     }
 
@@ -240,6 +275,709 @@ public class UnitTest {
             moves.add(m);
         }
         assertEquals(2176, numMoves);
+        b = new Board();
+        assertTrue(b.isLegal(Move.mv("d1-d5(d1)")));
+        assertFalse(b.isLegal(Move.mv("e1-e5(e6)")));
+        assertFalse(b.isLegal(Move.mv("a7-a8(a9)")));
+        assertFalse(b.isLegal(Move.mv("a4-j4(j5)")));
+        assertFalse(b.isLegal(Move.mv("a4-a8(a9)")));
+        assertFalse(b.isLegal(Move.mv("d1-d5(d10)")));
+    }
+
+
+    /** Tests that a queen on the last square (j10) gets all of its
+     *  moves, and that put and get agree for every square. */
+    @Test
+    public void testLegalMovesLastSquare() {
+        Board b = new Board();
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+            b.put(EMPTY, Square.sq(i));
+        }
+        b.put(WHITE, Square.sq(99));
+        int numMoves = 0;
+        Iterator<Move> legalMoves = b.legalMoves(Piece.WHITE);
+        while (legalMoves.hasNext()) {
+            assertEquals(Square.sq(99), legalMoves.next().from());
+            numMoves += 1;
+        }
+        assertEquals(769, numMoves);
+        Piece[] pieces = { WHITE, BLACK, SPEAR, EMPTY };
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+            Piece p = pieces[i % pieces.length];
+            b.put(p, Square.sq(i));
+            assertEquals(p, b.get(Square.sq(i)));
+        }
+    }
+
+
+    /** Tests that legalMoves into a packed buffer produces the same moves,
+     *  in the same order, as the legalMoves iterator. */
+    @Test
+    public void testLegalMovesBuffer() {
+        Board b = new Board();
+        buildBoard(b, REACHABLE_FROM_TESTBOARD);
+        int[] buffer = new int[Board.MAX_MOVES];
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            int n = b.legalMoves(side, buffer);
+            int k = 0;
+            for (Iterator<Move> it = b.legalMoves(side); it.hasNext(); ) {
+                Move m = it.next();
+                assertEquals(m.packed(), buffer[k]);
+                assertSame(m, Move.mv(buffer[k]));
+                k += 1;
+            }
+            assertEquals(k, n);
+        }
+        assertEquals(2176, new Board().legalMoves(WHITE, buffer));
+    }
+
+
+    /** Tests that the Zobrist key follows makeMove, undo, put and copy,
+     *  and that transposed move orders give the same key. */
+    @Test
+    public void testZobristKey() {
+        Board b = new Board();
+        long initial = b.key();
+        Move m1 = Move.mv("d1-d5(e5)"), m2 = Move.mv("a7-b7(c7)"),
+            m3 = Move.mv("g1-g5(h5)"), m4 = Move.mv("j7-i7(h7)");
+        b.makeMove(m1);
+        assertNotEquals(initial, b.key());
+        b.makeMove(m2);
+        b.makeMove(m3);
+        b.makeMove(m4);
+        Board other = new Board();
+        other.makeMove(m3);
+        other.makeMove(m4);
+        other.makeMove(m1);
+        other.makeMove(m2);
+        assertEquals(b.key(), other.key());
+        assertEquals(b, other);
+        assertEquals(b.hashCode(), other.hashCode());
+        Board copy = new Board(b);
+        assertEquals(b.key(), copy.key());
+        assertEquals(b, copy);
+        b.put(SPEAR, Square.sq("a1"));
+        assertNotEquals(copy.key(), b.key());
+        b.put(EMPTY, Square.sq("a1"));
+        assertEquals(copy.key(), b.key());
+        for (int i = 0; i < 4; i += 1) {
+            b.undo();
+        }
+        assertEquals(initial, b.key());
+        assertEquals(new Board(), b);
+    }
+
+
+    /** Tests parsing squares and moves from text and bytes. */
+    @Test
+    public void testMoveParser() {
+        int move = Move.pack(Square.sq("a10").index(),
+                             Square.sq("j1").index(), Square.sq("e5").index());
+        assertEquals(99, MoveParser.parseSquare("j10"));
+        assertEquals(0, MoveParser.parseSquare("a1"));
+        assertEquals(move, MoveParser.parse("a10-j1(e5)"));
+        assertEquals(move, MoveParser.parse("a10 j1\t e5"));
+        assertEquals(move, MoveParser.parse("xx a10-j1(e5)", 3, 13));
+        byte[] bytes = "a10-j1(e5)\n".getBytes();
+        assertEquals(move, MoveParser.parse(bytes, 0, bytes.length - 1));
+        for (String bad : new String[] {
+                "", "a0", "a11", "k1", "A1", "a1-a2(a3", "a1-a2 a3",
+                "a1a2a3", "a1 a2 a3 ", "a1 -a2(a3)", "a10-j1(e5))" }) {
+            assertEquals(bad, MoveParser.NONE, MoveParser.parse(bad));
+            assertFalse(bad, Move.isGrammaticalMove(bad));
+        }
+        assertEquals(MoveParser.NONE, MoveParser.parseSquare("a1 "));
+        assertNull(Move.mv("a1-b3(c3)"));
+        assertSame(Move.mv("a1-b2(b3)"), Move.mv("a1 b2 b3"));
+    }
+
+    /** Tests the numbering and uniqueness of Moves. */
+    @Test
+    public void testMoveIndex() {
+        boolean[] seen = new boolean[Move.NUM_MOVES];
+        int count = 0;
+        for (int from = 0; from < 100; from += 1) {
+            for (int to = 0; to < 100; to += 1) {
+                for (int spear = 0; spear < 100; spear += 1) {
+                    int move = Move.pack(from, to, spear);
+                    int index = Move.index(move);
+                    boolean possible = Square.isQueenMove(from, to)
+                        && Square.isQueenMove(to, spear);
+                    assertEquals(possible, index >= 0);
+                    if (possible) {
+                        assertFalse(seen[index]);
+                        seen[index] = true;
+                        count += 1;
+                    }
+                }
+            }
+        }
+        assertEquals(Move.NUM_MOVES, count);
+        Move m = Move.mv("d1-d5(d1)");
+        assertSame(m, Move.mv(m.packed()));
+        assertSame(m, Move.mv(Square.sq("d1"), Square.sq("d5"),
+                              Square.sq("d1")));
+        assertEquals("d1-d5(d1)", m.toString());
+        assertNull(Move.mv(Move.pack(0, 12, 13)));
+    }
+
+    /** Tests undoing, rewinding and copying move history, and that the
+     *  cached winner does not go stale. */
+    @Test
+    public void testUndoLog() {
+        Random random = new Random(3);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new Board();
+        long[] keys = new long[Board.SIZE * Board.SIZE];
+        while (b.winner() == null) {
+            keys[b.numMoves()] = b.key();
+            int n = b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+        int last = b.numMoves();
+        Board copy = new Board(b);
+        b.undo();
+        assertNull(b.winner());
+        assertEquals(keys[last - 1], b.key());
+        b.rewind(10);
+        assertEquals(10, b.numMoves());
+        assertEquals(keys[10], b.key());
+        copy.rewind(10);
+        assertEquals(b, copy);
+        copy.rewind(0);
+        assertEquals(new Board(), copy);
+        Square empty = Square.sq(4, 4);
+        assertEquals(EMPTY, b.get(empty));
+        b.put(SPEAR, empty);
+        b.put(EMPTY, empty);
+        assertEquals(keys[10], b.key());
+    }
+
+    /** Tests that a board catches up with another by making the moves
+     *  it lacks when their games agree, and copies it otherwise. */
+    @Test
+    public void testCatchUp() {
+        Board game = new Board(), copy = new Board();
+        assertEquals(0, copy.catchUp(game));
+        game.makeMove(Move.mv("d1-d7(g7)"));
+        game.makeMove(Move.mv("g10-g8(h8)"));
+        assertEquals(2, copy.catchUp(game));
+        assertEquals(game.key(), copy.key());
+        assertEquals(game.numMoves(), copy.numMoves());
+        game.makeMove(Move.mv("a4-b4(c4)"));
+        assertEquals(1, copy.catchUp(game));
+        assertEquals(game.toString(), copy.toString());
+        game.undo();
+        game.makeMove(Move.mv("a4-a5(b5)"));
+        assertEquals(-1, copy.catchUp(game));
+        assertEquals(game.key(), copy.key());
+        copy.undo();
+        assertEquals(Move.mv("g10-g8(h8)").packed(), copy.move(1));
+        game.init();
+        game.put(SPEAR, Square.sq(4, 4));
+        assertEquals(-1, copy.catchUp(game));
+        assertEquals(game.toString(), copy.toString());
+    }
+
+    /** Tests that a pondering AI uses its background search on a ponder
+     *  hit and abandons it otherwise.  Nothing here depends on timing:
+     *  stopPondering waits for the background search, whose first
+     *  iteration always finishes, so the table then predicts a reply. */
+    @Test
+    public void testPonder() {
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        AI ai = (AI) new AI().setTimeLimit(100).setPonder(true)
+            .create(WHITE, controller);
+        b.makeMove(Move.mv(ai.myMove()));
+        ai.ponder();
+        ai.stopPondering();
+        int predicted = Search.tableMove(ai.table(), b);
+        assertNotEquals(0, predicted);
+        ai.ponder();
+        Move reply = Move.mv(predicted);
+        assertTrue(b.isLegal(reply));
+        b.makeMove(reply);
+        Move move = Move.mv(ai.myMove());
+        assertEquals(1, ai.ponderHits());
+        assertTrue(b.isLegal(move));
+        b.makeMove(move);
+        ai.ponder();
+        int[] moves = new int[Board.MAX_MOVES];
+        b.legalMoves(b.turn(), moves);
+        predicted = Search.tableMove(ai.table(), b);
+        b.makeMove(moves[0] == predicted ? moves[1] : moves[0]);
+        move = Move.mv(ai.myMove());
+        assertEquals(1, ai.ponderHits());
+        assertTrue(b.isLegal(move));
+        b.makeMove(move);
+        ai.ponder();
+        ai.stopPondering();
+    }
+
+    /** Tests storing, probing and replacement in a TranspositionTable. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1 << 10);
+        int move = Move.mv("d1-d5(e5)").packed();
+        assertEquals(TranspositionTable.NONE, table.probe(42));
+        table.store(42, 3, TranspositionTable.UPPER, -1234, move);
+        long entry = table.probe(42);
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.UPPER, TranspositionTable.bound(entry));
+        assertEquals(-1234, TranspositionTable.score(entry));
+        long other = 42 + table.capacity() / 2;
+        table.store(other, 1, TranspositionTable.EXACT, 7, 0);
+        assertEquals(3, TranspositionTable.depth(table.probe(42)));
+        assertEquals(7, TranspositionTable.score(table.probe(other)));
+        table.store(other + table.capacity() / 2, 5,
+                    TranspositionTable.LOWER, Integer.MAX_VALUE - 1, move);
+        assertEquals(TranspositionTable.NONE, table.probe(42));
+        assertEquals(Integer.MAX_VALUE - 1, TranspositionTable.score(
+            table.probe(other + table.capacity() / 2)));
+        assertEquals(1, table.collisions());
+        long deep = other + table.capacity() / 2;
+        table.store(deep + table.capacity(), 1, TranspositionTable.EXACT,
+                    3, 0);
+        assertEquals(5, TranspositionTable.depth(table.probe(deep)));
+        table.newSearch();
+        table.store(deep + table.capacity() / 2, 1,
+                    TranspositionTable.EXACT, 4, 0);
+        assertEquals(TranspositionTable.NONE, table.probe(deep));
+        assertEquals(4, TranspositionTable.score(
+            table.probe(deep + table.capacity() / 2)));
+    }
+
+    /** Tests that principal-variation searches, whole-move and split-ply,
+     *  find the values of full-width minimax searches. */
+    @Test
+    public void testSearchValue() {
+        Random random = new Random(11);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new Board();
+        for (int ply = 0; ply < 50; ply += 1) {
+            if (ply % 10 == 9) {
+                int value = minimax(b, 2);
+                for (boolean split : new boolean[] { false, true }) {
+                    Search search =
+                        new Search(new TerritoryEvaluator(),
+                                   new TranspositionTable(1 << 16),
+                                   new AtomicBoolean(), split);
+                    search.iterate(b, 1, split ? 4 : 2,
+                                   System.nanoTime() + 60_000_000_000L,
+                                   true);
+                    assertEquals(value, search.value());
+                }
+            }
+            int n = b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[random.nextInt(n)]);
+        }
+    }
+
+    /** Return the value (positive for WHITE) of BOARD found by a plain
+     *  minimax search to DEPTH whole moves, scoring with a
+     *  TerritoryEvaluator. */
+    private static int minimax(Board board, int depth) {
+        if (depth == 0) {
+            return new TerritoryEvaluator().score(board);
+        }
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        int best = -sense * Search.WINNING_VALUE;
+        for (int k = 0; k < n; k += 1) {
+            board.makeMove(moves[k]);
+            int value = minimax(board, depth - 1);
+            board.undo();
+            if (sense * value > sense * best) {
+                best = value;
+            }
+        }
+        return best;
+    }
+
+
+    /** Tests that single- and multi-threaded AIs produce legal moves. */
+    @Test
+    public void testAIThreads() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        for (int threads = 1; threads <= 3; threads += 1) {
+            AI ai = new AI().setThreads(threads).setDepthLimit(2)
+                .setTableSize(1 << 16);
+            Player player = ai.create(WHITE, controller);
+            Move move = Move.mv(player.myMove());
+            assertNotNull(move);
+            assertEquals(WHITE, b.get(move.from()));
+            assertTrue(b.isUnblockedMove(move.from(), move.to(), null));
+            assertTrue(b.isUnblockedMove(move.to(), move.spear(),
+                                         move.from()));
+        }
+    }
+
+
+    /** Tests that the MCTS player finds legal moves within a playout
+     *  budget, with one or more threads. */
+    @Test
+    public void testMCTSPlayer() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        for (int threads = 1; threads <= 2; threads += 1) {
+            MCTSPlayer mcts = new MCTSPlayer().setThreads(threads)
+                .setPlayouts(200).setTimeLimit(60_000).setTreeSize(1 << 12);
+            MCTSPlayer player = (MCTSPlayer) mcts.create(BLACK, controller);
+            b.makeMove(Move.mv("d1-d7(g7)"));
+            Move move = Move.mv(player.myMove());
+            assertTrue(player.playouts() >= 200);
+            assertEquals(BLACK, b.get(move.from()));
+            assertTrue(b.isUnblockedMove(move.from(), move.to(), null));
+            assertTrue(b.isUnblockedMove(move.to(), move.spear(),
+                                         move.from()));
+            b.undo();
+        }
+        MCTSPlayer tiny = (MCTSPlayer) new MCTSPlayer().setPlayouts(1)
+            .setTreeSize(2).create(WHITE, controller);
+        assertTrue(b.isLegal(Move.mv(tiny.myMove())));
+    }
+
+    /** Tests that the MCTS player keeps the part of its tree below the
+     *  position reached, and still finds legal moves from it. */
+    @Test
+    public void testMCTSReuse() {
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        MCTSPlayer player = (MCTSPlayer) new MCTSPlayer().setPlayouts(2000)
+            .setTimeLimit(60_000).setTreeSize(1 << 14)
+            .create(WHITE, controller);
+        b.makeMove(Move.mv(player.myMove()));
+        assertEquals(0, player.reused());
+        for (int k = 0; k < 3; k += 1) {
+            Move move = Move.mv(player.myMove());
+            assertTrue(player.reused() > 0);
+            assertTrue(b.isLegal(move));
+            b.makeMove(move);
+        }
+        b.undo();
+        b.makeMove(Move.mv(player.myMove()));
+        b.init();
+        Move move = Move.mv(player.myMove());
+        assertEquals(0, player.reused());
+        assertTrue(b.isLegal(move));
+    }
+
+    /** Tests that a small tournament plays all its games to the end. */
+    @Test
+    public void testTournament() {
+        Player[] players = {
+            Tournament.player("ai", 60_000, 1, 0),
+            Tournament.player("mobility", 60_000, 1, 0)
+        };
+        Tournament tournament =
+            new Tournament(new String[] { "ai", "mobility" }, players, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] wins = tournament.run(2, 2, 0, new PrintStream(out));
+        assertEquals(2, wins[0] + wins[1]);
+        assertFalse(out.toString().contains("error"));
+    }
+
+    /** Tests writing random games to a game record and replaying them. */
+    @Test
+    public void testGameRecord() throws IOException {
+        File file = File.createTempFile("amazons", ".rec");
+        file.deleteOnExit();
+        Random random = new Random(17);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board[] games = new Board[3];
+        try (GameRecordWriter writer =
+             new GameRecordWriter(file.getPath())) {
+            for (int g = 0; g < games.length; g += 1) {
+                games[g] = new Board();
+                while (games[g].winner() == null) {
+                    int n = games[g].legalMoves(games[g].turn(), moves);
+                    games[g].makeMove(moves[random.nextInt(n)]);
+                }
+                writer.write(games[g]);
+            }
+        }
+        GameRecordReader reader = new GameRecordReader(file.getPath());
+        assertEquals(games.length, reader.size());
+        Board b = new Board();
+        for (int g = 0; g < games.length; g += 1) {
+            assertEquals(games[g].numMoves(), reader.numMoves(g));
+            assertEquals(games[g].winner(), reader.winner(g));
+            assertEquals(games[g].move(5), reader.move(g, 5));
+            reader.replay(g, b);
+            assertEquals(games[g], b);
+            assertEquals(games[g].winner(), b.winner());
+        }
+        reader.replay(1, 10, b);
+        assertEquals(10, b.numMoves());
+        assertEquals(games[1].move(9), b.move(9));
+    }
+
+    /** Tests building an opening book, looking positions up in it, and
+     *  an AI taking its moves from it. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        File file = File.createTempFile("amazons", ".book");
+        file.deleteOnExit();
+        BookBuilder builder =
+            new BookBuilder(new AI().setDepthLimit(1).setTimeLimit(60_000),
+                            3).build(2);
+        builder.write(file.getPath());
+        OpeningBook book = new OpeningBook(file.getPath());
+        assertEquals(builder.size(), book.size());
+        assertTrue(builder.positions() >= 2
+                   && builder.positions() <= 1 + 3);
+        for (int e = 1; e < book.size(); e += 1) {
+            assertTrue(book.key(e - 1) <= book.key(e));
+        }
+        Board b = new Board();
+        int first = book.find(b.canonicalKey()), entry = book.bestEntry(b);
+        assertTrue(first >= 0 && entry >= first && entry < first + 3);
+        for (int e = first; e < first + 3; e += 1) {
+            assertEquals(b.canonicalKey(), book.key(e));
+            assertTrue(book.value(entry) >= book.value(e));
+        }
+        assertEquals(-1, book.find(b.canonicalKey() + 1));
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI());
+        AI ai = (AI) new AI().setDepthLimit(1).setBook(book)
+            .create(WHITE, controller);
+        b = controller.board();
+        int move = book.move(entry, b);
+        assertEquals(move, Move.mv(ai.myMove()).packed());
+        b.makeMove(move);
+        int reply = book.bestEntry(b);
+        assertEquals(book.value(entry), book.value(reply));
+        b.makeMove(book.move(reply, b));
+        assertEquals(-1, book.bestEntry(b));
+        assertTrue(b.isLegal(Move.mv(ai.myMove())));
+        assertEquals(1, ai.bookMoves());
+        b = new Board();
+        int symmetry = b.canonicalTransform();
+        String[] moves = { "a4-a8(a9)", "e1-e5(e6)", "d1-d5(d10)",
+                           "d1-d5(e5)" };
+        int[] garbage = { -1, Move.pack(127, 127, 127), 1 << 30 };
+        int entries = garbage.length + moves.length;
+        ByteBuffer data =
+            ByteBuffer.allocate(OpeningBook.HEADER
+                                + OpeningBook.ENTRY * entries)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION)
+            .putInt(entries);
+        for (int k = 0; k < entries; k += 1) {
+            int packed = k < garbage.length ? garbage[k]
+                : Symmetry.move(symmetry,
+                                Move.mv(moves[k - garbage.length]).packed());
+            data.putLong(b.canonicalKey()).putInt(packed).putInt(entries - k);
+        }
+        Files.write(file.toPath(), data.array());
+        book = new OpeningBook(file.getPath());
+        assertEquals(entries - 1, book.bestEntry(b));
+        assertEquals(0, book.move(0, b));
+    }
+
+    /** Tests that images of a position under the symmetries share its
+     *  canonical key, and that moves translate between them. */
+    @Test
+    public void testSymmetry() {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g4)"));
+        b.makeMove(Move.mv("j7-h7(h2)"));
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            Board image = new Board();
+            for (int sq = 0; sq < Board.SIZE * Board.SIZE; sq += 1) {
+                image.put(b.get(Square.sq(sq)),
+                          Square.sq(Symmetry.square(t, sq)));
+            }
+            assertEquals(b.key(t), image.key());
+            assertEquals(b.canonicalKey(), image.canonicalKey());
+            assertEquals(t, Symmetry.inverse(Symmetry.inverse(t)));
+            int[] moves = new int[Board.MAX_MOVES];
+            int n = b.legalMoves(b.turn(), moves);
+            for (int k = 0; k < n; k += 7) {
+                int move = Symmetry.move(t, moves[k]);
+                assertTrue(image.isLegal(Move.mv(move)));
+                assertEquals(moves[k],
+                             Symmetry.move(Symmetry.inverse(t), move));
+            }
+        }
+    }
+
+    /** Tests perft counts from the initial position. */
+    @Test
+    public void testPerft() {
+        Perft perft = new Perft();
+        Board b = new Board();
+        assertEquals(1, perft.count(b, 0));
+        assertEquals(2176, perft.count(b, 1));
+        assertEquals(4307152, perft.count(b, 2));
+        long[] divide = perft.divide(b, 2);
+        assertEquals(2176, divide.length);
+        long total = 0;
+        for (long n : divide) {
+            total += n;
+        }
+        assertEquals(4307152, total);
+        assertEquals(new Board(), b);
+    }
+
+    /** Tests that hasMove, countMoves and reachableCount agree with move
+     *  generation. */
+    @Test
+    public void testCountMoves() {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        assertEquals(2176, b.countMoves(WHITE));
+        assertEquals(b.legalMoves(BLACK, moves), b.countMoves(BLACK));
+        buildBoard(b, LEGAL_TESTBOARD);
+        assertEquals(b.legalMoves(WHITE, moves), b.countMoves(WHITE));
+        assertEquals(b.legalMoves(BLACK, moves), b.countMoves(BLACK));
+        buildBoard(b, REACHABLE_FROM_TESTBOARD);
+        assertEquals(REACHABLE_TESTSQUARES.size(),
+                     b.reachableCount(Square.sq(5, 4).index()));
+        b = new Board();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            if (b.get(k) == EMPTY) {
+                b.put(SPEAR, Square.sq(k));
+            }
+        }
+        assertFalse(b.hasMove(WHITE));
+        assertEquals(0, b.countMoves(WHITE));
+        assertEquals(WHITE.opponent(), b.winner());
+        b.put(EMPTY, Square.sq("j5"));
+        assertTrue(b.hasMove(WHITE));
+        assertEquals(1, b.countMoves(WHITE));
+        assertEquals(1, b.reachableCount(Square.sq("j4").index()));
+    }
+
+    /** Tests that half moves compose to whole moves, keep the key up to
+     *  date, and generate the same moves as legalMoves. */
+    @Test
+    public void testHalfMoves() {
+        Board b = new Board();
+        buildBoard(b, LEGAL_TESTBOARD);
+        int[] whole = new int[Board.MAX_MOVES];
+        int[] queens = new int[Board.MAX_MOVES];
+        int[] spears = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(WHITE, whole);
+        long key = b.key();
+        int numQueens = b.queenMoves(WHITE, queens);
+        int k = 0;
+        for (int q = 0; q < numQueens; q += 1) {
+            b.moveQueen(queens[q]);
+            assertTrue(b.spearPending());
+            assertEquals(WHITE, b.turn());
+            assertNotEquals(key, b.key());
+            long pendingKey = b.key();
+            int numSpears = b.spearMoves(spears);
+            for (int s = 0; s < numSpears; s += 1) {
+                assertEquals(whole[k], spears[s]);
+                k += 1;
+            }
+            b.throwSpear(spears[0]);
+            assertFalse(b.spearPending());
+            assertEquals(BLACK, b.turn());
+            Board c = new Board();
+            buildBoard(c, LEGAL_TESTBOARD);
+            c.makeMove(spears[0]);
+            assertEquals(c.key(), b.key());
+            b.undoSpear();
+            assertEquals(pendingKey, b.key());
+            b.undoQueen();
+            assertEquals(key, b.key());
+        }
+        assertEquals(n, k);
+        AI ai = new AI().setSplitPly(true).setDepthLimit(2);
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), ai);
+        Player player = ai.create(WHITE, controller);
+        Move move = Move.mv(player.myMove());
+        assertEquals(WHITE, controller.board().get(move.from()));
+    }
+
+    /** Tests the endgame solver on separated and unseparated
+     *  positions. */
+    @Test
+    public void testEndgame() {
+        Endgame endgame = new Endgame();
+        Board b = new Board();
+        assertEquals(Endgame.UNKNOWN, endgame.moves(b, WHITE));
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        b.put(WHITE, Square.sq("a1"));
+        b.put(EMPTY, Square.sq("a2"));
+        b.put(EMPTY, Square.sq("a3"));
+        b.put(BLACK, Square.sq("j10"));
+        b.put(EMPTY, Square.sq("i10"));
+        assertEquals(2, endgame.moves(b, WHITE));
+        assertEquals(1, endgame.moves(b, BLACK));
+        assertEquals(Search.WINNING_VALUE, endgame.value(b));
+        int move = endgame.bestMove(b);
+        assertEquals(WHITE, b.get(Move.fromIndex(move)));
+        b.makeMove(move);
+        assertEquals(1, endgame.moves(b, WHITE));
+        assertEquals(Search.WINNING_VALUE, endgame.value(b));
+        b.undo();
+        for (String sq : new String[] { "b1", "b2", "b3", "c1", "c2",
+                                        "c3" }) {
+            b.put(EMPTY, Square.sq(sq));
+        }
+        int budget = 1;
+        while (new Endgame(budget).moves(b, WHITE) == Endgame.UNKNOWN) {
+            budget += 1;
+        }
+        assertEquals(0, new Endgame(budget).bestMove(b));
+        assertNotEquals(0, new Endgame().bestMove(b));
+    }
+
+    /** Tests that bitboard queen reach agrees with reachableFrom. */
+    @Test
+    public void testQueenReach() {
+        Board b = new Board();
+        buildBoard(b, REACHABLE_FROM_TESTBOARD);
+        long[] reach = new long[SquareSet.WORDS];
+        Square from = Square.sq(5, 4);
+        long[] start = new long[SquareSet.WORDS];
+        SquareSet.add(start, from.index());
+        SquareSet.queenReach(start[0], start[1], b.squares(EMPTY, 0),
+                             b.squares(EMPTY, 1), reach);
+        assertEquals(REACHABLE_TESTSQUARES.size(), SquareSet.size(reach));
+        for (Square s : REACHABLE_TESTSQUARES) {
+            assertTrue(SquareSet.contains(reach, s.index()));
+        }
+    }
+
+    /** Tests the territory evaluator on simple positions. */
+    @Test
+    public void testTerritoryEvaluator() {
+        Evaluator eval = new TerritoryEvaluator();
+        Board b = new Board();
+        assertTrue(eval.score(b) > 0);
+        b.makeMove(Move.mv("d1-d9(d1)"));
+        Board mirror = new Board();
+        mirror.makeMove(Move.mv("d1-d9(d1)"));
+        mirror.makeMove(Move.mv("d10-d2(d10)"));
+        assertTrue(eval.score(b) < eval.score(mirror));
+        b = new Board();
+        buildBoard(b, LEGAL_TESTBOARD);
+        assertTrue(eval.score(b) < 0);
+        b.put(SPEAR, Square.sq(1, 0));
+        b.put(SPEAR, Square.sq(2, 0));
+        assertEquals(-Search.WINNING_VALUE, eval.create().score(b));
     }
 
 